@@ -0,0 +1,113 @@
+package com.shimmermare.ecwidtest.jmh.ipaddrcounter;
+
+import com.shimmermare.ecwidtest.ipaddrcounter.ChunkedBitmap;
+import com.shimmermare.ecwidtest.ipaddrcounter.ChunkedUniqueIPCounter;
+import com.shimmermare.ecwidtest.ipaddrcounter.HyperLogLogUniqueIPCounter;
+import com.shimmermare.ecwidtest.ipaddrcounter.NaiveUniqueIPCounter;
+import com.shimmermare.ecwidtest.ipaddrcounter.OffHeapBitmap;
+import com.shimmermare.ecwidtest.ipaddrcounter.RoaringBitmap;
+import com.shimmermare.ecwidtest.ipaddrcounter.UniqueIPAccumulator;
+import com.shimmermare.ecwidtest.ipaddrcounter.UniqueIPCounter;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Single-threaded counting of in-memory input. Primary score is whole input counts per second,
+ * {@code lines} and {@code bytes} secondary scores are per second too.
+ *
+ * <p>Allocation rate is reported by the GC profiler: {@code -prof gc}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 2, jvmArgsAppend = {"-Xmx4G", "-XX:MaxDirectMemorySize=1G"})
+@State(Scope.Benchmark)
+public class CounterBenchmark {
+  public enum CounterType {
+    NAIVE {
+      @Override
+      UniqueIPCounter create(InputStream in) {
+        return new NaiveUniqueIPCounter(in);
+      }
+    },
+    CHUNKED {
+      @Override
+      UniqueIPCounter create(InputStream in) {
+        return new ChunkedUniqueIPCounter(in, new UniqueIPAccumulator(new ChunkedBitmap()));
+      }
+    },
+    ADAPTIVE {
+      @Override
+      UniqueIPCounter create(InputStream in) {
+        return new ChunkedUniqueIPCounter(in);
+      }
+    },
+    OFF_HEAP {
+      @Override
+      UniqueIPCounter create(InputStream in) {
+        return new ChunkedUniqueIPCounter(in, new UniqueIPAccumulator(new OffHeapBitmap()));
+      }
+    },
+    ROARING {
+      @Override
+      UniqueIPCounter create(InputStream in) {
+        return new ChunkedUniqueIPCounter(in, new UniqueIPAccumulator(new RoaringBitmap()));
+      }
+    },
+    HYPERLOGLOG {
+      @Override
+      UniqueIPCounter create(InputStream in) {
+        return new HyperLogLogUniqueIPCounter(in);
+      }
+    };
+
+    abstract UniqueIPCounter create(InputStream in);
+  }
+
+  @Param({"CHUNKED", "ADAPTIVE", "OFF_HEAP", "ROARING", "HYPERLOGLOG", "NAIVE"})
+  public CounterType counter;
+
+  @Param({"1000000", "10000000"})
+  public int lines;
+
+  @Param({"UNIFORM", "ISLANDS", "SUBNETS", "DUPLICATES"})
+  public Dataset dataset;
+
+  private byte[] input;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    input = dataset.generate(lines);
+  }
+
+  @Benchmark
+  public long count(Processed processed) throws IOException {
+    long count = counter.create(new ByteArrayInputStream(input)).count();
+    processed.lines += lines;
+    processed.bytes += input.length;
+    return count;
+  }
+
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  @State(Scope.Thread)
+  public static class Processed {
+    public long lines;
+    public long bytes;
+  }
+}
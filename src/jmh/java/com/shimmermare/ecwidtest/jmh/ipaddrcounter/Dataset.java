@@ -0,0 +1,32 @@
+package com.shimmermare.ecwidtest.jmh.ipaddrcounter;
+
+import com.shimmermare.ecwidtest.ipaddrcounter.IPv4ListGenerator;
+import com.shimmermare.ecwidtest.ipaddrcounter.IPv4ListGenerator.Distribution;
+
+/** Benchmark inputs, seeded so every fork counts exactly the same addresses. */
+public enum Dataset {
+  /** Whole address space, almost no repetitions. */
+  UNIFORM(Distribution.UNIFORM, 0),
+  /** A few hundred /16 subnets, which is what chunked bitmap is built for. */
+  ISLANDS(Distribution.ISLANDS, 0),
+  /** Popular /24 subnets, closest to real access logs. */
+  SUBNETS(Distribution.SUBNETS, 0.3),
+  /** Zipf popularity and most lines repeated. */
+  DUPLICATES(Distribution.ZIPF, 0.9);
+
+  private static final long SEED = 42;
+
+  private final IPv4ListGenerator generator;
+
+  Dataset(Distribution distribution, double duplicateRatio) {
+    this.generator = new IPv4ListGenerator(distribution, duplicateRatio, SEED);
+  }
+
+  public byte[] generate(int lines) {
+    return generator.generate(lines);
+  }
+
+  public IPv4ListGenerator generator() {
+    return generator;
+  }
+}
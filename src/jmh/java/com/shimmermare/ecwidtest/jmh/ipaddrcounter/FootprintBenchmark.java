@@ -0,0 +1,82 @@
+package com.shimmermare.ecwidtest.jmh.ipaddrcounter;
+
+import com.shimmermare.ecwidtest.jmh.ipaddrcounter.CounterBenchmark.CounterType;
+import com.shimmermare.ecwidtest.ipaddrcounter.UniqueIPCounter;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Retained footprint of a counter after counting: heap and direct memory used after full GC with
+ * the counter alive, minus the same without it. Only {@code retainedBytes} secondary score
+ * matters, time is meaningless here.
+ *
+ * <p>Walking the object graph (like JOL does) is slow and needs a lot of memory itself, and
+ * doesn't see off-heap memory, so MXBeans are used instead.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4G", "-XX:MaxDirectMemorySize=1G"})
+@State(Scope.Benchmark)
+public class FootprintBenchmark {
+  @Param({"CHUNKED", "ADAPTIVE", "OFF_HEAP", "ROARING", "HYPERLOGLOG", "NAIVE"})
+  public CounterType counter;
+
+  @Param({"1000000", "10000000"})
+  public int lines;
+
+  @Param({"UNIFORM", "ISLANDS", "SUBNETS", "DUPLICATES"})
+  public Dataset dataset;
+
+  private byte[] input;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    input = dataset.generate(lines);
+  }
+
+  @Benchmark
+  public long footprint(Retained retained) throws IOException {
+    long before = usedMemory();
+    UniqueIPCounter instance = counter.create(new ByteArrayInputStream(input));
+    long count = instance.count();
+    long after = usedMemory();
+    retained.retainedBytes = after - before;
+    // Keep counter alive until measured
+    return count + (instance.hashCode() & 0);
+  }
+
+  private static long usedMemory() {
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    long used = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+      used += pool.getMemoryUsed();
+    }
+    return used;
+  }
+
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  @State(Scope.Thread)
+  public static class Retained {
+    public long retainedBytes;
+  }
+}
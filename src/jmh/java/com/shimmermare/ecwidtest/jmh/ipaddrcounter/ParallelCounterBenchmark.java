@@ -0,0 +1,82 @@
+package com.shimmermare.ecwidtest.jmh.ipaddrcounter;
+
+import com.shimmermare.ecwidtest.ipaddrcounter.ChunkedUniqueIPCounter;
+import com.shimmermare.ecwidtest.ipaddrcounter.ParallelUniqueIPCounter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * File counting: memory-mapped single thread vs byte ranges on several threads. File is written
+ * once per trial, so after the first iteration it's served from the page cache.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 2, jvmArgsAppend = {"-Xmx4G", "-XX:MaxDirectMemorySize=1G"})
+@State(Scope.Benchmark)
+public class ParallelCounterBenchmark {
+  @Param({"1", "2", "4", "8"})
+  public int threads;
+
+  @Param({"10000000"})
+  public int lines;
+
+  @Param({"UNIFORM", "ISLANDS", "SUBNETS", "DUPLICATES"})
+  public Dataset dataset;
+
+  private Path file;
+  private long fileSize;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    file = Files.createTempFile("ipv4list", ".txt");
+    dataset.generator().write(file, lines, Runtime.getRuntime().availableProcessors());
+    fileSize = Files.size(file);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    Files.deleteIfExists(file);
+  }
+
+  @Benchmark
+  public long parallel(Processed processed) throws IOException {
+    long count = new ParallelUniqueIPCounter(file, threads).count();
+    processed.lines += lines;
+    processed.bytes += fileSize;
+    return count;
+  }
+
+  @Benchmark
+  public long mapped(Processed processed) throws IOException {
+    // Doesn't depend on threads, compare with threads=1 only
+    long count = new ChunkedUniqueIPCounter(file).count();
+    processed.lines += lines;
+    processed.bytes += fileSize;
+    return count;
+  }
+
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  @State(Scope.Thread)
+  public static class Processed {
+    public long lines;
+    public long bytes;
+  }
+}
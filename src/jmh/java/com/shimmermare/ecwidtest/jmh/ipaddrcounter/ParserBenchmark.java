@@ -0,0 +1,118 @@
+package com.shimmermare.ecwidtest.jmh.ipaddrcounter;
+
+import com.shimmermare.ecwidtest.ipaddrcounter.IPv4Parser;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link IPv4Parser} vs the old String-based parsing (decode line, split by dots, {@link
+ * Integer#parseInt(String)} every octet). Score is time per line; run with {@code -prof gc} to see
+ * bytes allocated per line.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+@State(Scope.Benchmark)
+public class ParserBenchmark {
+  private static final int LINES = 100_000;
+
+  private byte[] input;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    input = Dataset.UNIFORM.generate(LINES);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(LINES)
+  public long bytes() {
+    long checksum = 0;
+    int lineStart = 0;
+    for (int i = 0; i < input.length; i++) {
+      if (input[i] == '\n') {
+        checksum += IPv4Parser.parse(input, lineStart, i);
+        lineStart = i + 1;
+      }
+    }
+    return checksum;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(LINES)
+  public long strings() {
+    long checksum = 0;
+    int lineStart = 0;
+    for (int i = 0; i < input.length; i++) {
+      if (input[i] == '\n') {
+        checksum += parseWithStrings(input, lineStart, i);
+        lineStart = i + 1;
+      }
+    }
+    return checksum;
+  }
+
+  // Old implementation from ChunkedUniqueIPCounter, kept as a baseline.
+
+  private static long parseWithStrings(byte[] bytes, int from, int to) {
+    String line = new String(bytes, from, to - from, StandardCharsets.UTF_8);
+    List<String> octets = linearSplit(line, '.');
+    if (octets.size() != 4) {
+      throw new IllegalArgumentException("IPv4 should have 4 octets separated by dots");
+    }
+
+    int octet0 = parseOctet(octets.get(0), 0);
+    int octet1 = parseOctet(octets.get(1), 1);
+    int octet2 = parseOctet(octets.get(2), 2);
+    int octet3 = parseOctet(octets.get(3), 3);
+
+    long address = 0;
+    address |= ((long) octet0) << 24;
+    address |= octet1 << 16;
+    address |= octet2 << 8;
+    address |= octet3;
+    return address;
+  }
+
+  private static List<String> linearSplit(String string, char separator) {
+    List<String> result = new ArrayList<>();
+    int start = 0;
+    for (int i = 0; i < string.length(); i++) {
+      if (string.charAt(i) == separator) {
+        result.add(string.substring(start, i));
+        start = i + 1;
+        i = i + 1;
+        if (i >= string.length()) {
+          break;
+        }
+      }
+    }
+    if (start < string.length()) {
+      result.add(string.substring(start));
+    }
+    return result;
+  }
+
+  private static int parseOctet(String string, int octetPos) {
+    int octet = Integer.parseInt(string);
+    if (octet < 0 || octet > 255) {
+      throw new IllegalArgumentException(octetPos + " octet is not a 8-bit integer");
+    }
+    return octet;
+  }
+}
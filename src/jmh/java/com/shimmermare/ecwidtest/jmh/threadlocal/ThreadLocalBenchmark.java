@@ -0,0 +1,139 @@
+package com.shimmermare.ecwidtest.jmh.threadlocal;
+
+import com.shimmermare.ecwidtest.threadlocal.CustomThreadLocal;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Thread local access from many threads at once: {@link CustomThreadLocal} vs its previous
+ * implementation on a synchronized WeakHashMap vs {@link ThreadLocal}. Runs on all cores by
+ * default, use {@code -t 1}, {@code -t 2}... to see how throughput scales with threads.
+ *
+ * <p>JMH runs benchmarks on its own threads, not on {@link
+ * com.shimmermare.ecwidtest.threadlocal.SlotThread}s, so this measures the slower path of custom
+ * local, where slots of the thread are looked up in a table.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+@Threads(Threads.MAX)
+@State(Scope.Benchmark)
+public class ThreadLocalBenchmark {
+  @Param({"CUSTOM", "SYNCHRONIZED_MAP", "JDK"})
+  public Type type;
+
+  private Local<Object> local;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    local = type.create();
+  }
+
+  /** Every thread has its value set before measurement. */
+  @State(Scope.Thread)
+  public static class ThreadState {
+    private final Object value = new Object();
+
+    @Setup(Level.Iteration)
+    public void setUp(ThreadLocalBenchmark benchmark) {
+      benchmark.local.set(value);
+    }
+  }
+
+  @Benchmark
+  public Object get(ThreadState state) {
+    return local.get();
+  }
+
+  @Benchmark
+  public void set(ThreadState state) {
+    local.set(state.value);
+  }
+
+  /** Typical request scope: set, read a few times, remove. */
+  @Benchmark
+  public Object setGetRemove(ThreadState state) {
+    local.set(state.value);
+    Object value = local.get();
+    local.get();
+    local.remove();
+    return value;
+  }
+
+  public enum Type {
+    CUSTOM {
+      @Override
+      <T> Local<T> create() {
+        CustomThreadLocal<T> local = new CustomThreadLocal<>();
+        return new Local<>(local::get, local::set, local::remove);
+      }
+    },
+    SYNCHRONIZED_MAP {
+      @Override
+      <T> Local<T> create() {
+        // Previous CustomThreadLocal
+        Map<Thread, T> locals = Collections.synchronizedMap(new WeakHashMap<>());
+        return new Local<>(
+            () -> locals.get(Thread.currentThread()),
+            value -> locals.put(Thread.currentThread(), value),
+            () -> locals.remove(Thread.currentThread()));
+      }
+    },
+    JDK {
+      @Override
+      <T> Local<T> create() {
+        ThreadLocal<T> local = new ThreadLocal<>();
+        return new Local<>(local::get, local::set, local::remove);
+      }
+    };
+
+    abstract <T> Local<T> create();
+  }
+
+  /** Common face of benchmarked implementations. Monomorphic per fork, so calls get inlined. */
+  static final class Local<T> {
+    private final Supplier<T> getter;
+    private final Consumer<T> setter;
+    private final Runnable remover;
+
+    private Local(
+        Supplier<T> getter,
+        Consumer<T> setter,
+        Runnable remover) {
+      this.getter = getter;
+      this.setter = setter;
+      this.remover = remover;
+    }
+
+    T get() {
+      return getter.get();
+    }
+
+    void set(T value) {
+      setter.accept(value);
+    }
+
+    void remove() {
+      remover.run();
+    }
+  }
+}
@@ -0,0 +1,106 @@
+package com.shimmermare.ecwidtest.ipaddrcounter;
+
+/**
+ * Starts as {@link ChunkedBitmap} and moves everything to {@link OffHeapBitmap} once the number of
+ * populated blocks passes the threshold.
+ *
+ * <p>Sparse and clustered inputs stay cheap, while dense inputs don't pay for a million of block
+ * objects on the heap. Migration happens only once and takes one pass over the populated blocks.
+ */
+public final class AdaptiveBitmap implements AddressBitmap {
+  /**
+   * Half of the address space. Chunked bitmap is ~300 MB of heap at this point, and everything after
+   * that is only GC pressure.
+   */
+  public static final int DEFAULT_THRESHOLD = BLOCK_COUNT / 2;
+
+  private final int threshold;
+
+  private AddressBitmap delegate;
+  // Same as delegate until migration, then null
+  private ChunkedBitmap chunked;
+
+  public AdaptiveBitmap() {
+    this(DEFAULT_THRESHOLD);
+  }
+
+  /** @param threshold number of populated blocks after which bitmap moves off-heap. */
+  public AdaptiveBitmap(int threshold) {
+    if (threshold < 0) {
+      throw new IllegalArgumentException("Threshold can't be negative");
+    }
+    this.threshold = threshold;
+    this.chunked = new ChunkedBitmap();
+    this.delegate = chunked;
+  }
+
+  /** @return true if bitmap was moved off-heap. */
+  public boolean isOffHeap() {
+    return chunked == null;
+  }
+
+  @Override
+  public boolean add(int address) {
+    boolean added = delegate.add(address);
+    if (chunked != null && chunked.populatedBlocks() > threshold) {
+      migrate();
+    }
+    return added;
+  }
+
+  @Override
+  public long addAll(int[] addresses, int n) {
+    long added = delegate.addAll(addresses, n);
+    if (chunked != null && chunked.populatedBlocks() > threshold) {
+      migrate();
+    }
+    return added;
+  }
+
+  @Override
+  public boolean contains(int address) {
+    return delegate.contains(address);
+  }
+
+  @Override
+  public long cardinality() {
+    return delegate.cardinality();
+  }
+
+  /** @return populated blocks while on heap, -1 after moving off-heap. */
+  @Override
+  public int populatedBlocks() {
+    return chunked != null ? chunked.populatedBlocks() : -1;
+  }
+
+  @Override
+  public long estimatedBytes() {
+    return delegate.estimatedBytes();
+  }
+
+  @Override
+  public boolean readBlock(int blockIndex, long[] words) {
+    return delegate.readBlock(blockIndex, words);
+  }
+
+  @Override
+  public long orBlock(int blockIndex, long[] words) {
+    long added = delegate.orBlock(blockIndex, words);
+    if (chunked != null && chunked.populatedBlocks() > threshold) {
+      migrate();
+    }
+    return added;
+  }
+
+  private void migrate() {
+    OffHeapBitmap offHeap = new OffHeapBitmap();
+    long[] words = new long[BLOCK_WORDS];
+    for (int i = 0; i < BLOCK_COUNT; i++) {
+      if (chunked.readBlock(i, words)) {
+        offHeap.orBlock(i, words);
+      }
+    }
+    delegate = offHeap;
+    chunked = null;
+  }
+}
@@ -0,0 +1,65 @@
+package com.shimmermare.ecwidtest.ipaddrcounter;
+
+/**
+ * Set of IPv4 addresses, one bit per address. Address is an unsigned 32-bit value stored in int.
+ *
+ * <p>Address space is logically split into {@link #BLOCK_COUNT} blocks of {@link #BLOCK_SIZE} bits.
+ * Blocks are the unit of exchange between implementations: any bitmap can be copied or merged into
+ * any other one block by block as {@link #BLOCK_WORDS} 64-bit words.
+ *
+ * <p>Implementations aren't thread-safe.
+ */
+public interface AddressBitmap {
+  long IPv4_RANGE = 4_294_967_296L;
+  int BLOCK_SIZE = 4096;
+  int BLOCK_WORDS = BLOCK_SIZE / Long.SIZE;
+  int BLOCK_COUNT = (int) (IPv4_RANGE / BLOCK_SIZE);
+
+  /** @return true if address wasn't in the set before. */
+  boolean add(int address);
+
+  /**
+   * Add first {@code n} addresses of the array. Implementations may reorder the array to mark
+   * addresses in memory order.
+   *
+   * @return number of addresses that weren't in the set before.
+   */
+  default long addAll(int[] addresses, int n) {
+    long added = 0;
+    for (int i = 0; i < n; i++) {
+      if (add(addresses[i])) {
+        added++;
+      }
+    }
+    return added;
+  }
+
+  boolean contains(int address);
+
+  /** @return number of addresses in the set. */
+  long cardinality();
+
+  /** @return number of blocks with at least one address, or -1 if it isn't tracked. */
+  default int populatedBlocks() {
+    return -1;
+  }
+
+  /** @return approximate memory taken by the bitmap, or -1 if unknown. */
+  default long estimatedBytes() {
+    return -1;
+  }
+
+  /**
+   * Copy block bits into {@code words}, bit i of the block is bit (i % 64) of word (i / 64).
+   *
+   * @return false if block is empty; {@code words} content is undefined in that case.
+   */
+  boolean readBlock(int blockIndex, long[] words);
+
+  /**
+   * OR block bits with {@code words}.
+   *
+   * @return number of addresses that weren't in the set before.
+   */
+  long orBlock(int blockIndex, long[] words);
+}
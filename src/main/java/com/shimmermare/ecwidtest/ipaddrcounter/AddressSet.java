@@ -0,0 +1,262 @@
+package com.shimmermare.ecwidtest.ipaddrcounter;
+
+import static com.shimmermare.ecwidtest.ipaddrcounter.AddressBitmap.BLOCK_COUNT;
+import static com.shimmermare.ecwidtest.ipaddrcounter.AddressBitmap.BLOCK_SIZE;
+import static com.shimmermare.ecwidtest.ipaddrcounter.AddressBitmap.BLOCK_WORDS;
+
+import java.util.Arrays;
+
+/**
+ * Immutable set of addresses for set algebra between counts, e.g. "seen today but not yesterday"
+ * is {@code today.andNot(yesterday)}.
+ *
+ * <p>Only non-empty blocks are stored, as a sorted array of block indexes and their words. Binary
+ * operations walk both index arrays like a merge, so blocks missing on either side are skipped or
+ * copied as is, and only blocks present on both sides are combined word by word. Cost is
+ * proportional to the number of populated blocks, not to the address space. Cardinality of an
+ * operation can be computed without building the result.
+ */
+public final class AddressSet {
+  private static final AddressSet EMPTY = new AddressSet(new int[0], new long[0], 0, 0);
+
+  private final int[] blockIndexes;
+  // Words of block i are [i * BLOCK_WORDS, (i + 1) * BLOCK_WORDS)
+  private final long[] words;
+  private final int blockCount;
+  private final long cardinality;
+
+  private AddressSet(int[] blockIndexes, long[] words, int blockCount, long cardinality) {
+    this.blockIndexes = blockIndexes;
+    this.words = words;
+    this.blockCount = blockCount;
+    this.cardinality = cardinality;
+  }
+
+  public static AddressSet empty() {
+    return EMPTY;
+  }
+
+  /** Copy of the bitmap. Later changes of the bitmap don't affect the set. */
+  public static AddressSet of(AddressBitmap bitmap) {
+    Builder builder = new Builder(16);
+    long[] block = new long[BLOCK_WORDS];
+    for (int blockIndex = 0; blockIndex < BLOCK_COUNT; blockIndex++) {
+      if (bitmap.readBlock(blockIndex, block)) {
+        builder.add(blockIndex, block, 0);
+      }
+    }
+    return builder.build();
+  }
+
+  public long cardinality() {
+    return cardinality;
+  }
+
+  public boolean isEmpty() {
+    return cardinality == 0;
+  }
+
+  public boolean contains(int address) {
+    int i = Arrays.binarySearch(blockIndexes, 0, blockCount, address >>> 12);
+    if (i < 0) {
+      return false;
+    }
+    int indexInBlock = address & (BLOCK_SIZE - 1);
+    return (words[i * BLOCK_WORDS + (indexInBlock >>> 6)] & (1L << indexInBlock)) != 0;
+  }
+
+  /** Add all addresses to the bitmap. */
+  public void copyTo(AddressBitmap bitmap) {
+    long[] block = new long[BLOCK_WORDS];
+    for (int i = 0; i < blockCount; i++) {
+      System.arraycopy(words, i * BLOCK_WORDS, block, 0, BLOCK_WORDS);
+      bitmap.orBlock(blockIndexes[i], block);
+    }
+  }
+
+  /** @return addresses that are in either set. */
+  public AddressSet union(AddressSet other) {
+    return combine(other, Operation.OR);
+  }
+
+  /** @return addresses that are in both sets. */
+  public AddressSet intersection(AddressSet other) {
+    return combine(other, Operation.AND);
+  }
+
+  /** @return addresses of this set that aren't in the other one. */
+  public AddressSet andNot(AddressSet other) {
+    return combine(other, Operation.AND_NOT);
+  }
+
+  /** @return addresses that are in exactly one of the sets. */
+  public AddressSet xor(AddressSet other) {
+    return combine(other, Operation.XOR);
+  }
+
+  public long unionCardinality(AddressSet other) {
+    // Inclusion-exclusion is cheaper than counting the union itself
+    return cardinality + other.cardinality - intersectionCardinality(other);
+  }
+
+  public long intersectionCardinality(AddressSet other) {
+    long count = 0;
+    int i = 0;
+    int j = 0;
+    while (i < blockCount && j < other.blockCount) {
+      int a = blockIndexes[i];
+      int b = other.blockIndexes[j];
+      if (a < b) {
+        i++;
+      } else if (a > b) {
+        j++;
+      } else {
+        int x = i * BLOCK_WORDS;
+        int y = j * BLOCK_WORDS;
+        for (int w = 0; w < BLOCK_WORDS; w++) {
+          count += Long.bitCount(words[x + w] & other.words[y + w]);
+        }
+        i++;
+        j++;
+      }
+    }
+    return count;
+  }
+
+  public long andNotCardinality(AddressSet other) {
+    return cardinality - intersectionCardinality(other);
+  }
+
+  public long xorCardinality(AddressSet other) {
+    return cardinality + other.cardinality - 2 * intersectionCardinality(other);
+  }
+
+  private AddressSet combine(AddressSet other, Operation operation) {
+    Builder builder =
+        new Builder(Math.max(16, operation.initialBlocks(blockCount, other.blockCount)));
+    long[] block = new long[BLOCK_WORDS];
+    int i = 0;
+    int j = 0;
+    while (i < blockCount || j < other.blockCount) {
+      int a = i < blockCount ? blockIndexes[i] : Integer.MAX_VALUE;
+      int b = j < other.blockCount ? other.blockIndexes[j] : Integer.MAX_VALUE;
+      if (a < b) {
+        // Block only on the left: x op 0 is x for all operations but AND
+        if (operation != Operation.AND) {
+          builder.add(a, words, i * BLOCK_WORDS);
+        }
+        i++;
+      } else if (a > b) {
+        // Block only on the right: 0 op y is y for OR and XOR only
+        if (operation == Operation.OR || operation == Operation.XOR) {
+          builder.add(b, other.words, j * BLOCK_WORDS);
+        }
+        j++;
+      } else {
+        int x = i * BLOCK_WORDS;
+        int y = j * BLOCK_WORDS;
+        for (int w = 0; w < BLOCK_WORDS; w++) {
+          block[w] = operation.apply(words[x + w], other.words[y + w]);
+        }
+        builder.add(a, block, 0);
+        i++;
+        j++;
+      }
+    }
+    return builder.build();
+  }
+
+  private enum Operation {
+    OR {
+      @Override
+      long apply(long a, long b) {
+        return a | b;
+      }
+    },
+    AND {
+      @Override
+      long apply(long a, long b) {
+        return a & b;
+      }
+    },
+    AND_NOT {
+      @Override
+      long apply(long a, long b) {
+        return a & ~b;
+      }
+    },
+    XOR {
+      @Override
+      long apply(long a, long b) {
+        return a ^ b;
+      }
+    };
+
+    abstract long apply(long a, long b);
+
+    /**
+     * @return initial capacity: upper bound of result blocks for AND and AND_NOT, lower bound for
+     *     OR and XOR, where the upper bound of left + right is rarely reached by overlapping sets,
+     *     so builder grows instead.
+     */
+    int initialBlocks(int left, int right) {
+      switch (this) {
+        case AND:
+          return Math.min(left, right);
+        case AND_NOT:
+          return left;
+        default:
+          return Math.max(left, right);
+      }
+    }
+  }
+
+  /** Blocks should be added in ascending order. */
+  private static final class Builder {
+    private int[] blockIndexes;
+    private long[] words;
+    private int blockCount;
+    private long cardinality;
+
+    private Builder(int capacity) {
+      this.blockIndexes = new int[capacity];
+      this.words = new long[capacity * BLOCK_WORDS];
+    }
+
+    /** Add block from {@code source[offset, offset + BLOCK_WORDS)}, empty blocks are skipped. */
+    private void add(int blockIndex, long[] source, int offset) {
+      long blockCardinality = 0;
+      for (int w = 0; w < BLOCK_WORDS; w++) {
+        blockCardinality += Long.bitCount(source[offset + w]);
+      }
+      if (blockCardinality == 0) {
+        return;
+      }
+      if (blockCount == blockIndexes.length) {
+        // Block indexes are unique, so there are never more than BLOCK_COUNT
+        int capacity = Math.min(BLOCK_COUNT, blockCount * 2);
+        blockIndexes = Arrays.copyOf(blockIndexes, capacity);
+        words = Arrays.copyOf(words, capacity * BLOCK_WORDS);
+      }
+      blockIndexes[blockCount] = blockIndex;
+      System.arraycopy(source, offset, words, blockCount * BLOCK_WORDS, BLOCK_WORDS);
+      blockCount++;
+      cardinality += blockCardinality;
+    }
+
+    private AddressSet build() {
+      if (blockCount == 0) {
+        return EMPTY;
+      }
+      if (blockCount == blockIndexes.length) {
+        return new AddressSet(blockIndexes, words, blockCount, cardinality);
+      }
+      // Trim, result lives long and may be large
+      return new AddressSet(
+          Arrays.copyOf(blockIndexes, blockCount),
+          Arrays.copyOf(words, blockCount * BLOCK_WORDS),
+          blockCount,
+          cardinality);
+    }
+  }
+}
@@ -0,0 +1,112 @@
+package com.shimmermare.ecwidtest.ipaddrcounter;
+
+import static com.shimmermare.ecwidtest.ipaddrcounter.AddressBitmap.BLOCK_COUNT;
+import static com.shimmermare.ecwidtest.ipaddrcounter.AddressBitmap.BLOCK_WORDS;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Compact binary snapshot of {@link AddressBitmap}, so nodes can count locally and only move
+ * bitmaps between hosts. Snapshots from different nodes are merged with OR.
+ *
+ * <p>Format, big-endian:
+ *
+ * <pre>
+ * int magic "IPBM", int version
+ * for every non-empty block in ascending order:
+ *   int blockIndex, long wordMask, long word for every set bit of wordMask
+ * int -1
+ * </pre>
+ *
+ * Empty blocks and empty words aren't written, so sparse snapshot stays small. Both writing and
+ * reading go block by block and never hold more than one block in memory.
+ */
+public final class BitmapSnapshot {
+  private static final int MAGIC = 0x4950424D;
+  private static final int VERSION = 1;
+  private static final int END = -1;
+
+  private BitmapSnapshot() {}
+
+  /** Write snapshot of the bitmap. Stream is flushed, but not closed. */
+  public static void write(AddressBitmap bitmap, OutputStream out) throws IOException {
+    DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+    data.writeInt(MAGIC);
+    data.writeInt(VERSION);
+    long[] words = new long[BLOCK_WORDS];
+    for (int blockIndex = 0; blockIndex < BLOCK_COUNT; blockIndex++) {
+      if (!bitmap.readBlock(blockIndex, words)) {
+        continue;
+      }
+      long wordMask = 0;
+      for (int i = 0; i < BLOCK_WORDS; i++) {
+        if (words[i] != 0) {
+          wordMask |= 1L << i;
+        }
+      }
+      if (wordMask == 0) {
+        continue;
+      }
+      data.writeInt(blockIndex);
+      data.writeLong(wordMask);
+      for (int i = 0; i < BLOCK_WORDS; i++) {
+        if (words[i] != 0) {
+          data.writeLong(words[i]);
+        }
+      }
+    }
+    data.writeInt(END);
+    data.flush();
+  }
+
+  /**
+   * OR snapshot into the bitmap. Stream is read exactly up to the end of snapshot and isn't closed.
+   * It's read in small pieces, so pass buffered stream.
+   *
+   * @return number of addresses that weren't in the bitmap before.
+   */
+  public static long merge(InputStream in, AddressBitmap bitmap) throws IOException {
+    DataInputStream data = new DataInputStream(in);
+    try {
+      if (data.readInt() != MAGIC) {
+        throw new IOException("Not a bitmap snapshot");
+      }
+      int version = data.readInt();
+      if (version != VERSION) {
+        throw new IOException("Unsupported snapshot version " + version);
+      }
+
+      long added = 0;
+      long[] words = new long[BLOCK_WORDS];
+      int previousBlock = -1;
+      int blockIndex;
+      while ((blockIndex = data.readInt()) != END) {
+        if (blockIndex <= previousBlock || blockIndex >= BLOCK_COUNT) {
+          throw new IOException("Corrupted snapshot: unexpected block " + blockIndex);
+        }
+        long wordMask = data.readLong();
+        for (int i = 0; i < BLOCK_WORDS; i++) {
+          words[i] = (wordMask & (1L << i)) != 0 ? data.readLong() : 0;
+        }
+        added += bitmap.orBlock(blockIndex, words);
+        previousBlock = blockIndex;
+      }
+      return added;
+    } catch (EOFException e) {
+      throw new IOException("Snapshot is truncated", e);
+    }
+  }
+
+  /** Read snapshot into a new {@link AdaptiveBitmap}. */
+  public static AddressBitmap read(InputStream in) throws IOException {
+    AddressBitmap bitmap = new AdaptiveBitmap();
+    merge(in, bitmap);
+    return bitmap;
+  }
+}
@@ -0,0 +1,74 @@
+package com.shimmermare.ecwidtest.ipaddrcounter;
+
+import static com.shimmermare.ecwidtest.ipaddrcounter.AddressBitmap.BLOCK_WORDS;
+
+import java.util.Arrays;
+
+/**
+ * Shared storage of bitmap blocks for many small bitmaps. Blocks live in big pages of words and are
+ * referenced by int id, so there's no per-block object and no per-bitmap block index. Released
+ * blocks are zeroed and reused before new pages are allocated.
+ *
+ * <p>Not thread-safe.
+ */
+final class BlockPool {
+  static final int PAGE_BLOCKS = 1024;
+  private static final int PAGE_WORDS = PAGE_BLOCKS * BLOCK_WORDS;
+
+  private long[][] pages = new long[4][];
+  private int allocatedBlocks;
+
+  private int[] free = new int[64];
+  private int freeCount;
+
+  /** @return id of zeroed block. */
+  int allocate() {
+    if (freeCount > 0) {
+      return free[--freeCount];
+    }
+    int id = allocatedBlocks;
+    int page = id / PAGE_BLOCKS;
+    if (page == pages.length) {
+      pages = Arrays.copyOf(pages, pages.length * 2);
+    }
+    if (pages[page] == null) {
+      pages[page] = new long[PAGE_WORDS];
+    }
+    allocatedBlocks++;
+    return id;
+  }
+
+  void release(int id) {
+    int offset = offset(id);
+    Arrays.fill(page(id), offset, offset + BLOCK_WORDS, 0);
+    if (freeCount == free.length) {
+      free = Arrays.copyOf(free, freeCount * 2);
+    }
+    free[freeCount++] = id;
+  }
+
+  /** @return page with block words, starting from {@link #offset(int)}. */
+  long[] page(int id) {
+    return pages[id / PAGE_BLOCKS];
+  }
+
+  static int offset(int id) {
+    return (id % PAGE_BLOCKS) * BLOCK_WORDS;
+  }
+
+  /** @return blocks in use. */
+  int usedBlocks() {
+    return allocatedBlocks - freeCount;
+  }
+
+  /** @return bytes of all allocated pages, including free blocks. */
+  long allocatedBytes() {
+    long bytes = 0;
+    for (long[] page : pages) {
+      if (page != null) {
+        bytes += (long) page.length * Long.BYTES;
+      }
+    }
+    return bytes;
+  }
+}
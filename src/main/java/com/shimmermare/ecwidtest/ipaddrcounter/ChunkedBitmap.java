@@ -0,0 +1,151 @@
+package com.shimmermare.ecwidtest.ipaddrcounter;
+
+import java.util.Arrays;
+
+/**
+ * Bitmap split into lazily created blocks. Memory footprint is proportional to the number of
+ * blocks that have at least one address, which is great for clustered addresses.
+ *
+ * <p>Blocks are plain {@code long[]} of {@link #BLOCK_WORDS} words, and adding is a single
+ * test-and-set on a word, without bounds checks and growth logic of {@link java.util.BitSet}. For
+ * the best throughput feed addresses in batches with {@link #addAll(int[], int)}.
+ *
+ * <p>Fully populated it takes more than flat bitmap because of per-block object overhead, see
+ * {@link OffHeapBitmap} for that case.
+ */
+public final class ChunkedBitmap implements AddressBitmap {
+  private final long[][] blocks;
+  private int populatedBlocks;
+  private long cardinality;
+
+  // Zeroed blocks left by clear(), reused before allocating new ones
+  private long[][] spareBlocks = new long[0][];
+  private int spareCount;
+
+  public ChunkedBitmap() {
+    this.blocks = new long[BLOCK_COUNT][];
+  }
+
+  @Override
+  public boolean add(int address) {
+    long[] block = blocks[address >>> 12];
+    if (block == null) {
+      block = createBlock(address >>> 12);
+    }
+    // Shift takes only 6 lowest bits, so address itself is the bit index in the word
+    int wordIndex = (address >>> 6) & (BLOCK_WORDS - 1);
+    long word = block[wordIndex];
+    block[wordIndex] = word | (1L << address);
+    long added = ~word >>> address & 1;
+    cardinality += added;
+    return added != 0;
+  }
+
+  /**
+   * Add first {@code n} addresses of the array. Addresses are sorted in place first, so that
+   * marking walks blocks in order and every block is looked up once per run of its addresses,
+   * instead of jumping across the whole bitmap on every address.
+   *
+   * @return number of addresses that weren't in the set before.
+   */
+  @Override
+  public long addAll(int[] addresses, int n) {
+    Arrays.sort(addresses, 0, n);
+    int currentBlockIndex = -1;
+    long[] block = null;
+    long added = 0;
+    for (int i = 0; i < n; i++) {
+      int address = addresses[i];
+      int blockIndex = address >>> 12;
+      if (blockIndex != currentBlockIndex) {
+        currentBlockIndex = blockIndex;
+        block = blocks[blockIndex];
+        if (block == null) {
+          block = createBlock(blockIndex);
+        }
+      }
+      int wordIndex = (address >>> 6) & (BLOCK_WORDS - 1);
+      long word = block[wordIndex];
+      block[wordIndex] = word | (1L << address);
+      added += ~word >>> address & 1;
+    }
+    cardinality += added;
+    return added;
+  }
+
+  @Override
+  public boolean contains(int address) {
+    long[] block = blocks[address >>> 12];
+    return block != null && (block[(address >>> 6) & (BLOCK_WORDS - 1)] & (1L << address)) != 0;
+  }
+
+  @Override
+  public long cardinality() {
+    return cardinality;
+  }
+
+  @Override
+  public int populatedBlocks() {
+    return populatedBlocks;
+  }
+
+  /** Block index of references plus blocks with their array headers, including spare ones. */
+  @Override
+  public long estimatedBytes() {
+    long blockBytes = 16 + BLOCK_WORDS * Long.BYTES;
+    return 16 + (long) BLOCK_COUNT * 4 + (populatedBlocks + spareCount) * blockBytes;
+  }
+
+  /** Remove all addresses. Blocks are kept and reused, so refilling doesn't allocate. */
+  public void clear() {
+    if (spareBlocks.length < spareCount + populatedBlocks) {
+      spareBlocks = Arrays.copyOf(spareBlocks, spareCount + populatedBlocks);
+    }
+    for (int i = 0; i < blocks.length && populatedBlocks > 0; i++) {
+      long[] block = blocks[i];
+      if (block != null) {
+        Arrays.fill(block, 0);
+        spareBlocks[spareCount++] = block;
+        blocks[i] = null;
+        populatedBlocks--;
+      }
+    }
+    cardinality = 0;
+  }
+
+  @Override
+  public boolean readBlock(int blockIndex, long[] words) {
+    long[] block = blocks[blockIndex];
+    if (block == null) {
+      return false;
+    }
+    System.arraycopy(block, 0, words, 0, BLOCK_WORDS);
+    return true;
+  }
+
+  @Override
+  public long orBlock(int blockIndex, long[] words) {
+    long[] block = blocks[blockIndex];
+    long added = 0;
+    for (int i = 0; i < BLOCK_WORDS; i++) {
+      long word = words[i];
+      if (word == 0) {
+        continue;
+      }
+      if (block == null) {
+        block = createBlock(blockIndex);
+      }
+      added += Long.bitCount(word & ~block[i]);
+      block[i] |= word;
+    }
+    cardinality += added;
+    return added;
+  }
+
+  private long[] createBlock(int blockIndex) {
+    long[] block = spareCount > 0 ? spareBlocks[--spareCount] : new long[BLOCK_WORDS];
+    blocks[blockIndex] = block;
+    populatedBlocks++;
+    return block;
+  }
+}
@@ -1,17 +1,11 @@
 package com.shimmermare.ecwidtest.ipaddrcounter;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.UncheckedIOException;
-import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
-import java.util.BitSet;
-import java.util.List;
+import java.nio.file.Path;
 
 /**
- * The chunked BitSet implementation of unique IP counter.
+ * The chunked bitmap implementation of unique IP counter.
  *
  * <p>There's one known edge case where simple implementation is preferred: when there's not so much
  * addresses (<100k) and they uniformly distributed throughout the address space.
@@ -25,102 +19,79 @@ import java.util.List;
  *     address space are completely empty. Instead of using one big BitSet, we could break it into
  *     chunks to reduce memory footprint.
  *
- * <p>Possible optimization: change IP parsing so it doesn't use additional objects and instead
- * parses chars. That will squeeze another 20% perf or so at the cost of complete unreadability.
+ * <p>Lines are never decoded to strings: addresses are parsed straight from the read buffer by
+ * {@link IPv4Parser}, so there are no per-line allocations. When counting a file, it's
+ * memory-mapped, so bytes aren't even copied to the heap and OS page cache does all the buffering.
+ *
+ * <p>Bits are stored in {@link AdaptiveBitmap} by default: chunks are on heap until most of the
+ * address space is populated, then everything moves to one flat off-heap bitmap.
+ *
+ * <p>Other storage, taking address from a field of structured lines (see {@link FieldExtractor})
+ * and skipping invalid lines (see {@link InvalidLinePolicy}) are options of {@link
+ * UniqueIPAccumulator}, which can be passed to the constructor.
+ *
+ * <p>This is a one-shot wrapper around {@link UniqueIPAccumulator}, use it directly for incremental
+ * counting.
  */
 public final class ChunkedUniqueIPCounter implements UniqueIPCounter {
-  private static final long IPv4_RANGE = 4_294_967_296L;
-  private static final int BLOCK_SIZE = 4096;
+  // Only one of these is set
+  private final InputStream in;
+  private final Path file;
 
-  private final BufferedReader reader;
-  private long currentLine;
-
-  private final BitSet[] blocks;
-  private long uniqueCount;
+  private final UniqueIPAccumulator accumulator;
 
   public ChunkedUniqueIPCounter(InputStream in) {
-    this.reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
-    this.blocks = new BitSet[(int) (IPv4_RANGE / BLOCK_SIZE)];
+    this(in, new UniqueIPAccumulator());
   }
 
-  public long count() throws IOException {
-    try {
-      reader.lines().forEach(this::processLine);
-    } catch (UncheckedIOException e) {
-      throw e.getCause();
-    }
-    return uniqueCount;
+  /**
+   * Count into the given accumulator, which also brings the bitmap, field extractor and invalid
+   * line policy to use. Addresses it has already are counted too.
+   */
+  public ChunkedUniqueIPCounter(InputStream in, UniqueIPAccumulator accumulator) {
+    this.in = in;
+    this.file = null;
+    this.accumulator = accumulator;
   }
 
-  private void processLine(String line) {
-    long address;
-    try {
-      address = parseAddress(line);
-    } catch (Exception e) {
-      throw new IllegalArgumentException("Line " + currentLine + " is not a valid IPv4", e);
-    }
-
-    int blockIndex = (int) (address / BLOCK_SIZE);
-    int indexInBlock = (int) (address % BLOCK_SIZE);
-
-    // Create new block if wasn't used before
-    BitSet block = blocks[blockIndex];
-    if (block == null) {
-      blocks[blockIndex] = block = new BitSet(BLOCK_SIZE);
-    }
-
-    // Only increment unique counter if bit at index wasn't set already.
-    if (!block.get(indexInBlock)) {
-      block.set(indexInBlock);
-      uniqueCount++;
-    }
+  public ChunkedUniqueIPCounter(Path file) {
+    this(file, new UniqueIPAccumulator());
+  }
 
-    currentLine++;
+  /**
+   * Same as {@link #ChunkedUniqueIPCounter(InputStream, UniqueIPAccumulator)} for a file. Size of
+   * memory-mapped regions can be set with {@link UniqueIPAccumulator#addLines(Path, long)}.
+   */
+  public ChunkedUniqueIPCounter(Path file, UniqueIPAccumulator accumulator) {
+    this.in = null;
+    this.file = file;
+    this.accumulator = accumulator;
   }
 
-  private static long parseAddress(String line) {
-    List<String> octets = linearSplit(line, '.');
-    if (octets.size() != 4) {
-      throw new IllegalArgumentException("IPv4 should have 4 octets separated by dots");
+  public long count() throws IOException {
+    if (file != null) {
+      accumulator.addLines(file);
+    } else {
+      accumulator.addLines(in);
     }
+    return accumulator.uniqueCount();
+  }
 
-    int octet0 = parseOctet(octets.get(0), 0);
-    int octet1 = parseOctet(octets.get(1), 1);
-    int octet2 = parseOctet(octets.get(2), 2);
-    int octet3 = parseOctet(octets.get(3), 3);
-
-    long address = 0;
-    address |= ((long) octet0) << 24;
-    address |= octet1 << 16;
-    address |= octet2 << 8;
-    address |= octet3;
-    return address;
+  /**
+   * Counted addresses. Can be saved with {@link BitmapSnapshot} and merged with counts from other
+   * nodes.
+   */
+  public AddressBitmap bitmap() {
+    return accumulator.bitmap();
   }
 
-  private static List<String> linearSplit(String string, char separator) {
-    List<String> result = new ArrayList<>();
-    int start = 0;
-    for (int i = 0; i < string.length(); i++) {
-      if (string.charAt(i) == separator) {
-        result.add(string.substring(start, i));
-        start = i + 1;
-        i = i + 1;
-        if (i >= string.length()) {
-          break;
-        }
-      }
-    }
-    if (start < string.length()) {
-      result.add(string.substring(start));
-    }
-    return result;
+  /** @return live metrics, can be watched from other threads while {@link #count()} runs. */
+  public CountingMetrics metrics() {
+    return accumulator.metrics();
   }
 
-  private static int parseOctet(String string, int octetPos) {
-    int octet = Integer.parseInt(string);
-    if (octet < 0 || octet > 255) {
-      throw new IllegalArgumentException(octetPos + " octet is not a 8-bit integer");
-    }
-    return octet;
+  /** @return immutable copy of counted addresses for set algebra with other counts. */
+  public AddressSet addresses() {
+    return AddressSet.of(accumulator.bitmap());
   }
 }
@@ -0,0 +1,10 @@
+package com.shimmermare.ecwidtest.ipaddrcounter;
+
+/**
+ * Progress callback of a running count, see {@link CountingMetrics#setListener(CountingListener,
+ * long)}. Called on the counting thread, so it should be quick.
+ */
+@FunctionalInterface
+public interface CountingListener {
+  void onProgress(CountingStats stats);
+}
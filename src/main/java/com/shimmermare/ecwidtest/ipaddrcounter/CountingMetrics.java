@@ -0,0 +1,170 @@
+package com.shimmermare.ecwidtest.ipaddrcounter;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Live metrics of {@link UniqueIPAccumulator}: lines and bytes read, invalid lines, unique count
+ * and bitmap size, for watching long counts while they run.
+ *
+ * <p>Counting thread updates {@link LongAdder}s once per batch of lines, not per line, so the hot
+ * loop doesn't notice. Metrics can be read from any thread with {@link #snapshot()}, pushed to a
+ * {@link CountingListener} at a fixed interval, or exposed through JMX with {@link
+ * #registerMBean(String)}. Bitmap figures are read without synchronization and may lag a little.
+ */
+public final class CountingMetrics implements CountingMetricsMXBean {
+  public static final String MBEAN_DOMAIN = "com.shimmermare.ecwidtest.ipaddrcounter";
+
+  private final UniqueIPAccumulator accumulator;
+
+  private final LongAdder lines = new LongAdder();
+  private final LongAdder bytes = new LongAdder();
+  private final LongAdder invalidLines = new LongAdder();
+  // 0 until bulk input starts
+  private volatile long startNanos;
+
+  // Only touched by the counting thread
+  private CountingListener listener;
+  private long listenerIntervalNanos;
+  private long nextReportNanos;
+
+  CountingMetrics(UniqueIPAccumulator accumulator) {
+    this.accumulator = accumulator;
+  }
+
+  /**
+   * Call listener with a snapshot at most once per interval while counting, and once when bulk
+   * input ends. Should be set from the counting thread or before counting.
+   *
+   * @param listener null to remove.
+   */
+  public void setListener(CountingListener listener, long intervalMillis) {
+    if (intervalMillis < 0) {
+      throw new IllegalArgumentException("Interval can't be negative");
+    }
+    this.listener = listener;
+    this.listenerIntervalNanos = intervalMillis * 1_000_000;
+    this.nextReportNanos = System.nanoTime();
+  }
+
+  public CountingStats snapshot() {
+    long start = startNanos;
+    AddressBitmap bitmap = accumulator.bitmap();
+    return new CountingStats(
+        lines.sum(),
+        bytes.sum(),
+        invalidLines.sum(),
+        accumulator.uniqueCount(),
+        bitmap.populatedBlocks(),
+        bitmap.estimatedBytes(),
+        start == 0 ? 0 : System.nanoTime() - start);
+  }
+
+  /**
+   * Register as platform MBean {@code <MBEAN_DOMAIN>:type=UniqueIPCounter,name=<name>}, e.g. to
+   * watch in JConsole or scrape with a JMX exporter.
+   *
+   * @return registered name, to unregister with {@link #unregisterMBean(ObjectName)}.
+   */
+  public ObjectName registerMBean(String name) {
+    try {
+      ObjectName objectName =
+          new ObjectName(MBEAN_DOMAIN + ":type=UniqueIPCounter,name=" + ObjectName.quote(name));
+      ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+      return objectName;
+    } catch (InstanceAlreadyExistsException e) {
+      throw new IllegalStateException("MBean " + name + " is already registered", e);
+    } catch (JMException e) {
+      throw new IllegalStateException("Failed to register MBean " + name, e);
+    }
+  }
+
+  public static void unregisterMBean(ObjectName objectName) {
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    try {
+      if (server.isRegistered(objectName)) {
+        server.unregisterMBean(objectName);
+      }
+    } catch (JMException e) {
+      throw new IllegalStateException("Failed to unregister MBean " + objectName, e);
+    }
+  }
+
+  @Override
+  public long getLines() {
+    return lines.sum();
+  }
+
+  @Override
+  public long getBytes() {
+    return bytes.sum();
+  }
+
+  @Override
+  public long getInvalidLines() {
+    return invalidLines.sum();
+  }
+
+  @Override
+  public long getUniqueCount() {
+    return accumulator.uniqueCount();
+  }
+
+  @Override
+  public int getPopulatedBlocks() {
+    return accumulator.bitmap().populatedBlocks();
+  }
+
+  @Override
+  public long getBitmapBytes() {
+    return accumulator.bitmap().estimatedBytes();
+  }
+
+  @Override
+  public long getElapsedMillis() {
+    return snapshot().elapsedNanos() / 1_000_000;
+  }
+
+  @Override
+  public double getLinesPerSecond() {
+    return snapshot().linesPerSecond();
+  }
+
+  @Override
+  public double getBytesPerSecond() {
+    return snapshot().bytesPerSecond();
+  }
+
+  /** Mark start of bulk input, rates are computed from the first one. */
+  void start() {
+    if (startNanos == 0) {
+      startNanos = System.nanoTime();
+    }
+  }
+
+  /** Record a batch of lines, valid or not, and the bytes they took. */
+  void record(long lineCount, long byteCount) {
+    lines.add(lineCount);
+    bytes.add(byteCount);
+  }
+
+  void recordInvalid() {
+    invalidLines.increment();
+  }
+
+  /** Call listener if interval has passed or {@code force} is set. */
+  void report(boolean force) {
+    if (listener == null) {
+      return;
+    }
+    long now = System.nanoTime();
+    if (force || now - nextReportNanos >= 0) {
+      nextReportNanos = now + listenerIntervalNanos;
+      listener.onProgress(snapshot());
+    }
+  }
+}
@@ -0,0 +1,22 @@
+package com.shimmermare.ecwidtest.ipaddrcounter;
+
+/** JMX view of {@link CountingMetrics}. Values of a running count are approximate. */
+public interface CountingMetricsMXBean {
+  long getLines();
+
+  long getBytes();
+
+  long getInvalidLines();
+
+  long getUniqueCount();
+
+  int getPopulatedBlocks();
+
+  long getBitmapBytes();
+
+  long getElapsedMillis();
+
+  double getLinesPerSecond();
+
+  double getBytesPerSecond();
+}
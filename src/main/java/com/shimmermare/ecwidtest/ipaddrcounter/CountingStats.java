@@ -0,0 +1,90 @@
+package com.shimmermare.ecwidtest.ipaddrcounter;
+
+/** Immutable snapshot of {@link CountingMetrics}. */
+public final class CountingStats {
+  private final long lines;
+  private final long bytes;
+  private final long invalidLines;
+  private final long uniqueCount;
+  private final int populatedBlocks;
+  private final long bitmapBytes;
+  private final long elapsedNanos;
+
+  CountingStats(
+      long lines,
+      long bytes,
+      long invalidLines,
+      long uniqueCount,
+      int populatedBlocks,
+      long bitmapBytes,
+      long elapsedNanos) {
+    this.lines = lines;
+    this.bytes = bytes;
+    this.invalidLines = invalidLines;
+    this.uniqueCount = uniqueCount;
+    this.populatedBlocks = populatedBlocks;
+    this.bitmapBytes = bitmapBytes;
+    this.elapsedNanos = elapsedNanos;
+  }
+
+  /** @return lines read, including invalid ones. */
+  public long lines() {
+    return lines;
+  }
+
+  public long bytes() {
+    return bytes;
+  }
+
+  public long invalidLines() {
+    return invalidLines;
+  }
+
+  public long uniqueCount() {
+    return uniqueCount;
+  }
+
+  /** @return populated blocks of the bitmap, -1 if bitmap doesn't track them. */
+  public int populatedBlocks() {
+    return populatedBlocks;
+  }
+
+  /** @return estimated memory of the bitmap, -1 if unknown. */
+  public long bitmapBytes() {
+    return bitmapBytes;
+  }
+
+  /** @return time since the first line, 0 if nothing was read yet. */
+  public long elapsedNanos() {
+    return elapsedNanos;
+  }
+
+  /** @return average since the first line. */
+  public double linesPerSecond() {
+    return perSecond(lines);
+  }
+
+  /** @return average since the first line. */
+  public double bytesPerSecond() {
+    return perSecond(bytes);
+  }
+
+  private double perSecond(long value) {
+    return elapsedNanos == 0 ? 0 : value * 1e9 / elapsedNanos;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "%d lines (%.0f/s), %d bytes (%.1f MB/s), %d invalid, %d unique, %d blocks,"
+            + " %d bitmap bytes",
+        lines,
+        linesPerSecond(),
+        bytes,
+        bytesPerSecond() / (1024 * 1024),
+        invalidLines,
+        uniqueCount,
+        populatedBlocks,
+        bitmapBytes);
+  }
+}
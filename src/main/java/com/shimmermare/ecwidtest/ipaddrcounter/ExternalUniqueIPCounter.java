@@ -0,0 +1,478 @@
+package com.shimmermare.ecwidtest.ipaddrcounter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Exact unique IP counter for small heaps, trading disk I/O for memory.
+ *
+ * <p>First pass parses input and partitions addresses by their highest bits into spill files, one
+ * per partition. Second pass counts partitions one by one with a flat bitmap of only 2^32 / N bits,
+ * because addresses of different partitions can't be equal. With N partitions peak bitmap memory is
+ * 512 MB / N, so N is picked as the smallest power of two that fits the given budget.
+ *
+ * <p>Both passes overlap I/O with CPU work: in the first pass a writer thread writes filled
+ * partition buffers while parsing goes on, and in the second pass a reader thread reads the next
+ * chunks of spill files while the current one is counted. Spill buffers are direct and don't take
+ * heap.
+ *
+ * <p>Every spill file being written takes a file descriptor, so the first pass writes at most 2^8
+ * files, which fits the common limit of 1024 open files. With more partitions every file holds a
+ * group of them and is split into its partitions in another round, just before they are counted.
+ */
+public final class ExternalUniqueIPCounter implements UniqueIPCounter {
+  public static final int MAX_PARTITION_BITS = 12;
+
+  // Memory for all partition write buffers together, each is in [4 KB, 64 KB]
+  private static final int SPILL_BUFFERS_BYTES = 16 * 1024 * 1024;
+  private static final int READ_CHUNK_SIZE = 1024 * 1024;
+  private static final int READ_CHUNKS = 4;
+  // Max spill files written at once is 2^8
+  private static final int MAX_SPILL_FILE_BITS = 8;
+
+  private final InputStream in;
+  private final Path tempDir;
+  private final int partitionBits;
+
+  /**
+   * @param tempDir directory for spill files, they are deleted after counting. At most 256 of them
+   *     are open at once, budgets below 2 MB make more partitions than that and take one more round
+   *     of spill file I/O.
+   * @param maxBitmapBytes max size of bitmap of one partition, at least 512 MB / 2^12 = 128 KB.
+   */
+  public ExternalUniqueIPCounter(InputStream in, Path tempDir, long maxBitmapBytes) {
+    this.in = in;
+    this.tempDir = tempDir;
+    this.partitionBits = partitionBits(maxBitmapBytes);
+  }
+
+  /** @return smallest number of partition bits that makes partition bitmap fit the budget. */
+  static int partitionBits(long maxBitmapBytes) {
+    for (int bits = 0; bits <= MAX_PARTITION_BITS; bits++) {
+      if (bitmapBytes(bits) <= maxBitmapBytes) {
+        return bits;
+      }
+    }
+    throw new IllegalArgumentException(
+        "Bitmap budget should be at least " + bitmapBytes(MAX_PARTITION_BITS) + " bytes");
+  }
+
+  private static long bitmapBytes(int partitionBits) {
+    return (AddressBitmap.IPv4_RANGE >>> partitionBits) / Byte.SIZE;
+  }
+
+  public int partitions() {
+    return 1 << partitionBits;
+  }
+
+  @Override
+  public long count() throws IOException {
+    int fileBits = Math.min(partitionBits, MAX_SPILL_FILE_BITS);
+    Path[] files = new Path[1 << fileBits];
+    // Direct buffers are freed only by GC, so all rounds share them
+    SpillBuffers buffers = new SpillBuffers(files.length);
+    try {
+      createTempFiles(files, "ipv4-partition-");
+      partition(files, fileBits, buffers);
+      if (fileBits == partitionBits) {
+        return countPartitions(files, buffers);
+      }
+      long uniqueCount = 0;
+      for (int i = 0; i < files.length; i++) {
+        uniqueCount += countGroup(files[i], "ipv4-partition-" + i + "-", buffers);
+        Files.delete(files[i]);
+      }
+      return uniqueCount;
+    } finally {
+      deleteTempFiles(files);
+    }
+  }
+
+  /** First pass: parse lines and append addresses to spill files by their highest bits. */
+  private void partition(Path[] files, int fileBits, SpillBuffers buffers) throws IOException {
+    FileChannel[] channels = new FileChannel[files.length];
+    try {
+      for (int i = 0; i < files.length; i++) {
+        channels[i] = FileChannel.open(files[i], StandardOpenOption.WRITE);
+      }
+      Spiller spiller = new Spiller(channels, buffers.write(channels.length));
+      try {
+        LineReader reader = new LineReader(in);
+        int shift = Integer.SIZE - fileBits;
+        long currentLine = 0;
+        while (reader.next()) {
+          byte[] bytes = reader.buffer();
+          long address = IPv4Parser.parse(bytes, reader.lineStart(), reader.lineEnd());
+          if (address == IPv4Parser.INVALID) {
+            String reason = IPv4Parser.describeError(bytes, reader.lineStart(), reader.lineEnd());
+            throw new IllegalArgumentException(
+                "Line " + currentLine + " is not a valid IPv4",
+                new IllegalArgumentException(reason));
+          }
+          // Shift by 32 is a no-op in Java, single file needs a special case
+          spiller.add(fileBits == 0 ? 0 : (int) (address >>> shift), (int) address);
+          currentLine++;
+        }
+        spiller.finish();
+      } finally {
+        spiller.stop();
+      }
+    } finally {
+      closeAll(channels);
+    }
+  }
+
+  /** Split spill file of a group of partitions into files of these partitions and count them. */
+  private long countGroup(Path group, String prefix, SpillBuffers buffers) throws IOException {
+    Path[] files = new Path[1 << (partitionBits - MAX_SPILL_FILE_BITS)];
+    try {
+      createTempFiles(files, prefix);
+      FileChannel[] channels = new FileChannel[files.length];
+      try (FileChannel in = FileChannel.open(group, StandardOpenOption.READ)) {
+        for (int i = 0; i < files.length; i++) {
+          channels[i] = FileChannel.open(files[i], StandardOpenOption.WRITE);
+        }
+        Spiller spiller = new Spiller(channels, buffers.write(channels.length));
+        try {
+          int shift = Integer.SIZE - partitionBits;
+          int mask = files.length - 1;
+          // Spill reader isn't running yet, so its chunk is free
+          ByteBuffer chunk = buffers.read[0].clear();
+          while (in.read(chunk) != -1) {
+            chunk.flip();
+            while (chunk.remaining() >= Integer.BYTES) {
+              int address = chunk.getInt();
+              spiller.add((address >>> shift) & mask, address);
+            }
+            chunk.compact();
+          }
+          spiller.finish();
+        } finally {
+          spiller.stop();
+        }
+      } finally {
+        closeAll(channels);
+      }
+      return countPartitions(files, buffers);
+    } finally {
+      deleteTempFiles(files);
+    }
+  }
+
+  private void createTempFiles(Path[] files, String prefix) throws IOException {
+    for (int i = 0; i < files.length; i++) {
+      files[i] = Files.createTempFile(tempDir, prefix + i + "-", ".bin");
+    }
+  }
+
+  private static void deleteTempFiles(Path[] files) throws IOException {
+    for (Path file : files) {
+      if (file != null) {
+        Files.deleteIfExists(file);
+      }
+    }
+  }
+
+  private static void closeAll(FileChannel[] channels) throws IOException {
+    for (FileChannel channel : channels) {
+      if (channel != null) {
+        channel.close();
+      }
+    }
+  }
+
+  /** Second pass: count every partition with the same small bitmap. */
+  private long countPartitions(Path[] files, SpillBuffers buffers) throws IOException {
+    long[] words = new long[(int) (bitmapBytes(partitionBits) / Long.BYTES)];
+    int wordMask = words.length - 1;
+    SpillReader reader = new SpillReader(files, buffers.read);
+    try {
+      long uniqueCount = 0;
+      boolean dirty = false;
+      ByteBuffer chunk;
+      while ((chunk = reader.next()) != SpillReader.END) {
+        if (chunk == SpillReader.PARTITION_END) {
+          if (dirty) {
+            Arrays.fill(words, 0);
+            dirty = false;
+          }
+          continue;
+        }
+        while (chunk.remaining() >= Integer.BYTES) {
+          int address = chunk.getInt();
+          int wordIndex = (address >>> 6) & wordMask;
+          long word = words[wordIndex];
+          words[wordIndex] = word | (1L << address);
+          uniqueCount += ~word >>> address & 1;
+        }
+        dirty = true;
+        reader.recycle(chunk);
+      }
+      return uniqueCount;
+    } finally {
+      reader.stop();
+    }
+  }
+
+  /**
+   * Direct buffers of one count, allocated once and reused by every round of spill I/O. Every
+   * round takes all buffers it needs and is done with them before the next one starts.
+   */
+  private static final class SpillBuffers {
+    private final ByteBuffer[] write;
+    private final ByteBuffer[] read = new ByteBuffer[READ_CHUNKS];
+
+    /** @param files max number of files written at once. */
+    private SpillBuffers(int files) {
+      int bufferSize = Math.max(4096, Math.min(64 * 1024, SPILL_BUFFERS_BYTES / files));
+      this.write = new ByteBuffer[files + inFlight(files)];
+      for (int i = 0; i < write.length; i++) {
+        write[i] = ByteBuffer.allocateDirect(bufferSize).order(ByteOrder.nativeOrder());
+      }
+      for (int i = 0; i < read.length; i++) {
+        read[i] = ByteBuffer.allocateDirect(READ_CHUNK_SIZE).order(ByteOrder.nativeOrder());
+      }
+    }
+
+    /** Every file holds one buffer, the rest are in flight. */
+    private static int inFlight(int files) {
+      return Math.max(4, files / 4);
+    }
+
+    /** @return cleared buffers for writing the files. */
+    private ByteBuffer[] write(int files) {
+      ByteBuffer[] buffers = Arrays.copyOf(write, files + inFlight(files));
+      for (ByteBuffer buffer : buffers) {
+        buffer.clear();
+      }
+      return buffers;
+    }
+  }
+
+  /** Buffers addresses of every spill file and hands filled buffers to a {@link SpillWriter}. */
+  private static final class Spiller {
+    private final SpillWriter writer;
+    private final ByteBuffer[] buffers;
+
+    private Spiller(FileChannel[] channels, ByteBuffer[] writeBuffers) throws IOException {
+      this.writer = new SpillWriter(channels, writeBuffers);
+      this.buffers = new ByteBuffer[channels.length];
+      try {
+        for (int i = 0; i < buffers.length; i++) {
+          buffers[i] = writer.takeBuffer();
+        }
+      } catch (IOException e) {
+        writer.stop();
+        throw e;
+      }
+    }
+
+    private void add(int file, int address) throws IOException {
+      ByteBuffer buffer = buffers[file];
+      buffer.putInt(address);
+      if (!buffer.hasRemaining()) {
+        writer.submit(file, buffer);
+        buffers[file] = writer.takeBuffer();
+      }
+    }
+
+    /** Write what's left in buffers and wait until everything is written. */
+    private void finish() throws IOException {
+      for (int i = 0; i < buffers.length; i++) {
+        if (buffers[i].position() > 0) {
+          writer.submit(i, buffers[i]);
+        }
+      }
+      writer.finish();
+    }
+
+    private void stop() {
+      writer.stop();
+    }
+  }
+
+  /** Writes filled partition buffers on its own thread and returns them for reuse. */
+  private static final class SpillWriter {
+    private final FileChannel[] channels;
+    private final BlockingQueue<ByteBuffer> freeBuffers;
+    private final BlockingQueue<Spill> filled;
+    private final Thread thread;
+    private volatile IOException error;
+
+    private SpillWriter(FileChannel[] channels, ByteBuffer[] buffers) {
+      this.channels = channels;
+      this.freeBuffers = new ArrayBlockingQueue<>(buffers.length, false, Arrays.asList(buffers));
+      this.filled = new ArrayBlockingQueue<>(buffers.length + 1);
+      this.thread = new Thread(this::run, "spill-writer");
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    private void run() {
+      try {
+        while (true) {
+          Spill spill = filled.take();
+          if (spill == Spill.END) {
+            return;
+          }
+          FileChannel channel = channels[spill.partition];
+          ByteBuffer buffer = spill.buffer;
+          buffer.flip();
+          while (buffer.hasRemaining()) {
+            channel.write(buffer);
+          }
+          buffer.clear();
+          freeBuffers.put(buffer);
+        }
+      } catch (IOException e) {
+        error = e;
+        // Unblock parser waiting for a buffer, it checks the error after taking one
+        freeBuffers.offer(ByteBuffer.allocate(0));
+      } catch (InterruptedException e) {
+        // Stopped
+      }
+    }
+
+    private ByteBuffer takeBuffer() throws IOException {
+      ByteBuffer buffer;
+      try {
+        buffer = freeBuffers.take();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while waiting for spill writer", e);
+      }
+      checkError();
+      return buffer;
+    }
+
+    private void submit(int partition, ByteBuffer buffer) throws IOException {
+      checkError();
+      try {
+        filled.put(new Spill(partition, buffer));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while waiting for spill writer", e);
+      }
+    }
+
+    /** Wait until everything submitted is written. */
+    private void finish() throws IOException {
+      try {
+        filled.put(Spill.END);
+        thread.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while waiting for spill writer", e);
+      }
+      checkError();
+    }
+
+    private void stop() {
+      thread.interrupt();
+    }
+
+    private void checkError() throws IOException {
+      if (error != null) {
+        throw new IOException("Failed to write spill file", error);
+      }
+    }
+  }
+
+  private static final class Spill {
+    private static final Spill END = new Spill(-1, null);
+
+    private final int partition;
+    private final ByteBuffer buffer;
+
+    private Spill(int partition, ByteBuffer buffer) {
+      this.partition = partition;
+      this.buffer = buffer;
+    }
+  }
+
+  /**
+   * Reads spill files in order on its own thread, handing chunks over through a bounded queue. End
+   * of every partition is marked with {@link #PARTITION_END}, end of all with {@link #END}.
+   */
+  private static final class SpillReader {
+    private static final ByteBuffer PARTITION_END = ByteBuffer.allocate(0);
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    private final Path[] files;
+    private final BlockingQueue<ByteBuffer> freeChunks = new ArrayBlockingQueue<>(READ_CHUNKS);
+    private final BlockingQueue<ByteBuffer> chunks = new ArrayBlockingQueue<>(READ_CHUNKS + 2);
+    private final Thread thread;
+    private volatile IOException error;
+
+    private SpillReader(Path[] files, ByteBuffer[] chunks) {
+      this.files = files;
+      freeChunks.addAll(Arrays.asList(chunks));
+      this.thread = new Thread(this::run, "spill-reader");
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    private void run() {
+      try {
+        for (Path file : files) {
+          try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (true) {
+              ByteBuffer chunk = freeChunks.take();
+              chunk.clear();
+              // Chunk size is a multiple of address size, so addresses are never split
+              while (chunk.hasRemaining() && channel.read(chunk) != -1) {}
+              chunk.flip();
+              if (!chunk.hasRemaining()) {
+                freeChunks.put(chunk);
+                break;
+              }
+              chunks.put(chunk);
+            }
+          }
+          chunks.put(PARTITION_END);
+        }
+        chunks.put(END);
+      } catch (IOException e) {
+        error = e;
+        try {
+          chunks.put(END);
+        } catch (InterruptedException stopped) {
+          // Nobody waits for the rest
+        }
+      } catch (InterruptedException e) {
+        // Stopped
+      }
+    }
+
+    private ByteBuffer next() throws IOException {
+      ByteBuffer chunk;
+      try {
+        chunk = chunks.take();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while waiting for spill reader", e);
+      }
+      if (error != null) {
+        throw new IOException("Failed to read spill file", error);
+      }
+      return chunk;
+    }
+
+    private void recycle(ByteBuffer chunk) {
+      freeChunks.offer(chunk);
+    }
+
+    private void stop() {
+      thread.interrupt();
+    }
+  }
+}
@@ -0,0 +1,53 @@
+package com.shimmermare.ecwidtest.ipaddrcounter;
+
+/**
+ * Finds the address in a line of structured input, e.g. a column of access log or CSV export, so
+ * there's no need to cut it out with awk beforehand.
+ *
+ * <p>Extractors scan line bytes in place and parse the address with {@link IPv4Parser}, nothing is
+ * allocated per line. They are stateless and can be shared between threads.
+ */
+public interface FieldExtractor {
+  /**
+   * Find and parse the address in the line [from, to).
+   *
+   * @return address as unsigned 32-bit value or {@link IPv4Parser#INVALID} if there's no such
+   *     field or it isn't a valid IPv4.
+   */
+  long extract(byte[] bytes, int from, int to);
+
+  /** Whole line is the address. This is the default, and the only one that can use mmap. */
+  static FieldExtractor wholeLine() {
+    return FieldExtractors.WholeLine.INSTANCE;
+  }
+
+  /**
+   * Field by zero-based index, where fields are separated by any number of spaces and tabs, same
+   * as in awk. Leading whitespace is skipped. For combined access log format, client address is
+   * field 0.
+   */
+  static FieldExtractor whitespaceField(int index) {
+    return new FieldExtractors.WhitespaceField(index);
+  }
+
+  /** Same as {@link #csvColumn(int, char)} with comma separator. */
+  static FieldExtractor csvColumn(int index) {
+    return csvColumn(index, ',');
+  }
+
+  /**
+   * Column by zero-based index, RFC 4180 style: separator inside of double quotes doesn't split
+   * columns and quotes around the value are dropped. Spaces are part of the value.
+   */
+  static FieldExtractor csvColumn(int index, char separator) {
+    return new FieldExtractors.CsvColumn(index, separator);
+  }
+
+  /**
+   * First token that is a valid IPv4. Token is a run of digits and dots that isn't glued to other
+   * letters or digits, so version numbers like {@code v1.2.3.4} and {@code 1.2.3.4.5} are skipped.
+   */
+  static FieldExtractor firstIPv4() {
+    return FieldExtractors.FirstIPv4.INSTANCE;
+  }
+}
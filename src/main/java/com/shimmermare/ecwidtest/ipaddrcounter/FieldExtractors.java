@@ -0,0 +1,162 @@
+package com.shimmermare.ecwidtest.ipaddrcounter;
+
+/** Implementations of {@link FieldExtractor}. */
+final class FieldExtractors {
+  private FieldExtractors() {}
+
+  static final class WholeLine implements FieldExtractor {
+    static final WholeLine INSTANCE = new WholeLine();
+
+    @Override
+    public long extract(byte[] bytes, int from, int to) {
+      return IPv4Parser.parse(bytes, from, to);
+    }
+
+    @Override
+    public String toString() {
+      return "whole line";
+    }
+  }
+
+  static final class WhitespaceField implements FieldExtractor {
+    private final int index;
+
+    WhitespaceField(int index) {
+      if (index < 0) {
+        throw new IllegalArgumentException("Field index can't be negative");
+      }
+      this.index = index;
+    }
+
+    @Override
+    public long extract(byte[] bytes, int from, int to) {
+      int field = -1;
+      int i = from;
+      while (i < to) {
+        while (i < to && isWhitespace(bytes[i])) {
+          i++;
+        }
+        if (i == to) {
+          break;
+        }
+        int start = i;
+        while (i < to && !isWhitespace(bytes[i])) {
+          i++;
+        }
+        if (++field == index) {
+          return IPv4Parser.parse(bytes, start, i);
+        }
+      }
+      return IPv4Parser.INVALID;
+    }
+
+    private static boolean isWhitespace(byte b) {
+      return b == ' ' || b == '\t';
+    }
+
+    @Override
+    public String toString() {
+      return "whitespace field " + index;
+    }
+  }
+
+  static final class CsvColumn implements FieldExtractor {
+    private final int index;
+    private final byte separator;
+
+    CsvColumn(int index, char separator) {
+      if (index < 0) {
+        throw new IllegalArgumentException("Column index can't be negative");
+      }
+      if (separator > 127 || separator == '"' || separator == '\n' || separator == '\r') {
+        throw new IllegalArgumentException("Separator should be ASCII other than quote and EOL");
+      }
+      this.index = index;
+      this.separator = (byte) separator;
+    }
+
+    @Override
+    public long extract(byte[] bytes, int from, int to) {
+      int column = 0;
+      int i = from;
+      while (i <= to) {
+        int start = i;
+        int end;
+        if (i < to && bytes[i] == '"') {
+          // Quoted value ends at the quote that isn't doubled
+          start = ++i;
+          while (i < to && (bytes[i] != '"' || i + 1 < to && bytes[i + 1] == '"')) {
+            i += bytes[i] == '"' ? 2 : 1;
+          }
+          end = i;
+          // Skip closing quote and anything until the separator
+          while (i < to && bytes[i] != separator) {
+            i++;
+          }
+        } else {
+          while (i < to && bytes[i] != separator) {
+            i++;
+          }
+          end = i;
+        }
+        if (column++ == index) {
+          return IPv4Parser.parse(bytes, start, end);
+        }
+        // Step over separator
+        i++;
+      }
+      return IPv4Parser.INVALID;
+    }
+
+    @Override
+    public String toString() {
+      return "CSV column " + index;
+    }
+  }
+
+  static final class FirstIPv4 implements FieldExtractor {
+    static final FirstIPv4 INSTANCE = new FirstIPv4();
+
+    @Override
+    public long extract(byte[] bytes, int from, int to) {
+      int i = from;
+      while (i < to) {
+        if (!isTokenByte(bytes[i])) {
+          i++;
+          continue;
+        }
+        int start = i;
+        boolean digitsAndDots = true;
+        while (i < to && isTokenByte(bytes[i])) {
+          byte b = bytes[i];
+          digitsAndDots &= b == '.' || (b >= '0' && b <= '9');
+          i++;
+        }
+        if (digitsAndDots) {
+          // Trailing dot is sentence punctuation, not a part of the address
+          int end = bytes[i - 1] == '.' ? i - 1 : i;
+          long address = IPv4Parser.parse(bytes, start, end);
+          if (address != IPv4Parser.INVALID) {
+            return address;
+          }
+        }
+      }
+      return IPv4Parser.INVALID;
+    }
+
+    private static boolean isTokenByte(byte b) {
+      return b == '.'
+          || (b >= '0' && b <= '9')
+          || (b >= 'a' && b <= 'z')
+          || (b >= 'A' && b <= 'Z')
+          || b == '_'
+          || b == '-'
+          || b < 0;
+    }
+
+    @Override
+    public String toString() {
+      return "first IPv4";
+    }
+  }
+}
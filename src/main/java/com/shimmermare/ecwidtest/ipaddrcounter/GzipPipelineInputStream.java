@@ -0,0 +1,359 @@
+package com.shimmermare.ecwidtest.ipaddrcounter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+/**
+ * Decompressed view of gzip input, where decompression runs ahead of the reader on its own
+ * thread. Inflated bytes are handed over in chunks through a bounded queue, so reader parses one
+ * chunk while the next ones are being inflated, and memory stays bounded if reader is slower.
+ *
+ * <p>Inflating a gzip member can't be split, and start of the next member isn't known until the
+ * previous one is inflated, unless member size is written in the header. BGZF (blocked gzip, used
+ * by bgzip and htslib) does exactly that: every member is at most 64 KB and has its size in the
+ * {@code BC} extra field. When {@link #open(Path, int)} sees such members, they are inflated by
+ * several workers in parallel and handed over in file order. Any other gzip, including plain
+ * multi-member files, is inflated on one thread.
+ *
+ * <p>Errors of decompression are thrown from the read call that reaches them.
+ */
+public final class GzipPipelineInputStream extends InputStream {
+  static final int CHUNK_SIZE = 256 * 1024;
+
+  private static final int GZIP_MAGIC = 0x8B1F;
+  private static final int METHOD_DEFLATE = 8;
+  private static final int FLAG_EXTRA = 4;
+  // Fixed part of member header, then XLEN
+  private static final int HEADER_SIZE = 10;
+  private static final int TRAILER_SIZE = 8;
+  // BGZF members inflate to at most 64 KB
+  private static final int MAX_INFLATED_MEMBER_SIZE = 64 * 1024;
+
+  private static final Chunk END = new Chunk(new byte[0], 0, null);
+
+  private final BlockingQueue<Chunk> chunks;
+  // Buffers returned by reader, to not allocate a new one for every chunk
+  private final BlockingQueue<byte[]> freeBuffers;
+  private Thread producer;
+
+  private Chunk current;
+  private int position;
+  private boolean closed;
+
+  /** Inflate on one background thread. */
+  public GzipPipelineInputStream(InputStream compressed) {
+    this(16);
+    start(() -> inflateSequentially(compressed), compressed);
+  }
+
+  private GzipPipelineInputStream(int queueCapacity) {
+    this.chunks = new ArrayBlockingQueue<>(queueCapacity);
+    this.freeBuffers = new ArrayBlockingQueue<>(queueCapacity + 2);
+  }
+
+  /** Same as {@link #open(Path, int)} with a worker per available processor. */
+  public static GzipPipelineInputStream open(Path file) throws IOException {
+    return open(file, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Open gzip file, inflating BGZF members with {@code threads} workers, or on one background
+   * thread for other gzip files.
+   */
+  public static GzipPipelineInputStream open(Path file, int threads) throws IOException {
+    if (threads < 1) {
+      throw new IllegalArgumentException("Thread count should be positive");
+    }
+    FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+    GzipPipelineInputStream stream = new GzipPipelineInputStream(Math.max(16, threads * 4));
+    stream.start(() -> stream.inflateMembers(channel, threads), channel);
+    return stream;
+  }
+
+  /** @return true if file starts with gzip magic bytes. */
+  public static boolean isGzip(Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      ByteBuffer magic = ByteBuffer.allocate(2).order(ByteOrder.LITTLE_ENDIAN);
+      return channel.read(magic, 0) == 2 && Short.toUnsignedInt(magic.getShort(0)) == GZIP_MAGIC;
+    }
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (!ensureChunk()) {
+      return -1;
+    }
+    return current.bytes[position++] & 0xFF;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (len == 0) {
+      return 0;
+    }
+    if (!ensureChunk()) {
+      return -1;
+    }
+    int read = Math.min(len, current.length - position);
+    System.arraycopy(current.bytes, position, b, off, read);
+    position += read;
+    return read;
+  }
+
+  @Override
+  public void close() {
+    if (!closed) {
+      closed = true;
+      producer.interrupt();
+    }
+  }
+
+  /** @return false on end of stream. */
+  private boolean ensureChunk() throws IOException {
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+    while (current == null || position == current.length) {
+      if (current == END) {
+        return false;
+      }
+      if (current != null && current.bytes.length == CHUNK_SIZE) {
+        freeBuffers.offer(current.bytes);
+      }
+      try {
+        current = chunks.take();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while waiting for decompression", e);
+      }
+      position = 0;
+      if (current.error != null) {
+        Throwable error = current.error;
+        current = END;
+        if (error instanceof IOException) {
+          throw new IOException(error.getMessage(), error);
+        }
+        throw new IOException("Decompression failed", error);
+      }
+    }
+    return true;
+  }
+
+  private void start(Producer body, AutoCloseable source) {
+    Thread thread =
+        new Thread(
+            () -> {
+              try (source) {
+                body.run();
+                chunks.put(END);
+              } catch (InterruptedException e) {
+                // Closed by reader, nobody waits for the rest
+              } catch (Throwable e) {
+                try {
+                  chunks.put(new Chunk(null, 0, e));
+                } catch (InterruptedException ignored) {
+                  // Same as above
+                }
+              }
+            },
+            "gzip-pipeline");
+    thread.setDaemon(true);
+    producer = thread;
+    thread.start();
+  }
+
+  private void inflateSequentially(InputStream compressed)
+      throws IOException, InterruptedException {
+    InputStream gzip = new GZIPInputStream(compressed, 64 * 1024);
+    while (true) {
+      byte[] buffer = freeBuffers.poll();
+      if (buffer == null) {
+        buffer = new byte[CHUNK_SIZE];
+      }
+      int length = gzip.readNBytes(buffer, 0, CHUNK_SIZE);
+      if (length == 0) {
+        return;
+      }
+      chunks.put(new Chunk(buffer, length, null));
+    }
+  }
+
+  /**
+   * Inflate BGZF members in parallel while they last. If some member has no size in header,
+   * inflate everything from it on this thread.
+   */
+  private void inflateMembers(FileChannel channel, int threads)
+      throws IOException, InterruptedException {
+    long size = channel.size();
+    long offset = 0;
+    byte[] member = readMember(channel, offset);
+    if (member != null) {
+      ExecutorService executor = Executors.newFixedThreadPool(threads);
+      try {
+        Deque<Future<byte[]>> inFlight = new ArrayDeque<>();
+        while (member != null) {
+          byte[] compressed = member;
+          long memberOffset = offset;
+          if (inFlight.size() == threads * 2) {
+            emit(await(inFlight.poll()));
+          }
+          inFlight.add(executor.submit(() -> inflateMember(compressed, memberOffset)));
+          offset += member.length;
+          member = offset < size ? readMember(channel, offset) : null;
+        }
+        while (!inFlight.isEmpty()) {
+          emit(await(inFlight.poll()));
+        }
+      } finally {
+        executor.shutdownNow();
+      }
+    }
+    if (offset < size) {
+      inflateSequentially(Channels.newInputStream(channel.position(offset)));
+    }
+  }
+
+  private void emit(byte[] inflated) throws InterruptedException {
+    if (inflated.length > 0) {
+      chunks.put(new Chunk(inflated, inflated.length, null));
+    }
+  }
+
+  /** @return whole member with header and trailer, or null if its size isn't in the header. */
+  private static byte[] readMember(FileChannel channel, long offset) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + 2).order(ByteOrder.LITTLE_ENDIAN);
+    if (readFully(channel, header, offset) < header.capacity()
+        || Short.toUnsignedInt(header.getShort(0)) != GZIP_MAGIC
+        || header.get(2) != METHOD_DEFLATE
+        || header.get(3) != FLAG_EXTRA) {
+      // Other header flags are possible but bgzip never writes them, not worth supporting
+      return null;
+    }
+    int extraLength = Short.toUnsignedInt(header.getShort(HEADER_SIZE));
+    ByteBuffer extra = ByteBuffer.allocate(extraLength).order(ByteOrder.LITTLE_ENDIAN);
+    if (readFully(channel, extra, offset + header.capacity()) < extraLength) {
+      return null;
+    }
+    int memberSize = -1;
+    for (int i = 0; i + 4 <= extraLength; ) {
+      int subfieldLength = Short.toUnsignedInt(extra.getShort(i + 2));
+      boolean blockSize = extra.get(i) == 'B' && extra.get(i + 1) == 'C' && subfieldLength == 2;
+      if (blockSize && i + 6 <= extraLength) {
+        memberSize = Short.toUnsignedInt(extra.getShort(i + 4)) + 1;
+        break;
+      }
+      i += 4 + subfieldLength;
+    }
+    int minSize = header.capacity() + extraLength + TRAILER_SIZE;
+    if (memberSize < minSize) {
+      return null;
+    }
+    ByteBuffer member = ByteBuffer.allocate(memberSize);
+    if (readFully(channel, member, offset) < memberSize) {
+      throw new IOException("Truncated gzip member at offset " + offset);
+    }
+    return member.array();
+  }
+
+  private static int readFully(FileChannel channel, ByteBuffer buffer, long offset)
+      throws IOException {
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, offset + buffer.position()) == -1) {
+        break;
+      }
+    }
+    return buffer.position();
+  }
+
+  private static byte[] inflateMember(byte[] member, long offset) throws IOException {
+    ByteBuffer trailer =
+        ByteBuffer.wrap(member, member.length - TRAILER_SIZE, TRAILER_SIZE)
+            .order(ByteOrder.LITTLE_ENDIAN);
+    int expectedCrc = trailer.getInt();
+    int inflatedSize = trailer.getInt();
+    // Size comes from the file, don't let a corrupted one allocate gigabytes
+    if (inflatedSize < 0 || inflatedSize > MAX_INFLATED_MEMBER_SIZE) {
+      throw new IOException("Corrupted gzip member at offset " + offset + ": size overflow");
+    }
+
+    int extraLength = (member[HEADER_SIZE] & 0xFF) | (member[HEADER_SIZE + 1] & 0xFF) << 8;
+    int dataStart = HEADER_SIZE + 2 + extraLength;
+    byte[] inflated = new byte[inflatedSize];
+    Inflater inflater = new Inflater(true);
+    try {
+      inflater.setInput(member, dataStart, member.length - TRAILER_SIZE - dataStart);
+      int length = 0;
+      while (length < inflatedSize && !inflater.finished()) {
+        int read = inflater.inflate(inflated, length, inflatedSize - length);
+        if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          break;
+        }
+        length += read;
+      }
+      if (length != inflatedSize || !inflater.finished() && inflatedSize > 0) {
+        throw new IOException("Corrupted gzip member at offset " + offset + ": size mismatch");
+      }
+    } catch (DataFormatException e) {
+      throw new IOException("Corrupted gzip member at offset " + offset, e);
+    } finally {
+      inflater.end();
+    }
+
+    CRC32 crc = new CRC32();
+    crc.update(inflated);
+    if ((int) crc.getValue() != expectedCrc) {
+      throw new IOException("Corrupted gzip member at offset " + offset + ": CRC mismatch");
+    }
+    return inflated;
+  }
+
+  private static byte[] await(Future<byte[]> task) throws IOException, InterruptedException {
+    try {
+      return task.get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IllegalStateException("Worker failed", cause);
+    }
+  }
+
+  @FunctionalInterface
+  private interface Producer {
+    void run() throws IOException, InterruptedException;
+  }
+
+  private static final class Chunk {
+    private final byte[] bytes;
+    private final int length;
+    private final Throwable error;
+
+    private Chunk(byte[] bytes, int length, Throwable error) {
+      this.bytes = bytes;
+      this.length = length;
+      this.error = error;
+    }
+  }
+}
@@ -0,0 +1,49 @@
+package com.shimmermare.ecwidtest.ipaddrcounter;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Approximate unique IP counter for when exact number isn't needed, e.g. dashboards and alerting.
+ *
+ * <p>Memory is fixed and measured in kilobytes regardless of input, compared to hundreds of
+ * megabytes for {@link ChunkedUniqueIPCounter} in the worst case. {@link #count()} returns an
+ * estimate, see {@link HyperLogLog} for error bounds.
+ */
+public final class HyperLogLogUniqueIPCounter implements UniqueIPCounter {
+  private final InputStream in;
+  private long currentLine;
+
+  private final HyperLogLog sketch;
+
+  public HyperLogLogUniqueIPCounter(InputStream in) {
+    this(in, HyperLogLog.DEFAULT_PRECISION);
+  }
+
+  public HyperLogLogUniqueIPCounter(InputStream in, int precision) {
+    this.in = in;
+    this.sketch = new HyperLogLog(precision);
+  }
+
+  @Override
+  public long count() throws IOException {
+    LineReader reader = new LineReader(in);
+    while (reader.next()) {
+      byte[] bytes = reader.buffer();
+      long address = IPv4Parser.parse(bytes, reader.lineStart(), reader.lineEnd());
+      if (address == IPv4Parser.INVALID) {
+        throw new IllegalArgumentException(
+            "Line " + currentLine + " is not a valid IPv4",
+            new IllegalArgumentException(
+                IPv4Parser.describeError(bytes, reader.lineStart(), reader.lineEnd())));
+      }
+      sketch.add((int) address);
+      currentLine++;
+    }
+    return sketch.estimate();
+  }
+
+  public HyperLogLog sketch() {
+    return sketch;
+  }
+}
@@ -0,0 +1,274 @@
+package com.shimmermare.ecwidtest.ipaddrcounter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Generates IPv4 lists for tests and benchmarks, one address per line with LF separator.
+ *
+ * <p>Output depends only on distribution, duplicate ratio, seed and line count. Lines are generated
+ * in blocks of {@link #BLOCK_LINES}, and every block has its own random derived from the seed and
+ * block index, so blocks can be generated by any number of threads in any order and the result is
+ * still the same byte for byte.
+ *
+ * <p>Duplicate ratio is the share of lines that repeat an earlier address of the same block. These
+ * come on top of repetitions the distribution produces by itself, so the real duplicate share is
+ * higher for skewed distributions.
+ *
+ * <p>Usage: {@code IPv4ListGenerator <file> <lines> [distribution] [duplicate ratio] [seed]
+ * [threads]}.
+ */
+public final class IPv4ListGenerator {
+  public static final int BLOCK_LINES = 1 << 16;
+
+  // Longest line is "255.255.255.255\n"
+  private static final int MAX_LINE_LENGTH = 16;
+  private static final byte[][] OCTETS = new byte[256][];
+
+  static {
+    for (int i = 0; i < OCTETS.length; i++) {
+      OCTETS[i] = Integer.toString(i).getBytes(StandardCharsets.US_ASCII);
+    }
+  }
+
+  public enum Distribution {
+    /** Whole address space with equal probability. */
+    UNIFORM,
+    /**
+     * Popularity of addresses follows Zipf's law with exponent 1: few addresses make most of the
+     * lines, and there is a long tail of 64M rare ones scattered over the whole space.
+     */
+    ZIPF,
+    /** Addresses from 256 random /16 subnets, dense inside and nothing between them. */
+    ISLANDS,
+    /** Thousands of /24 subnets with Zipf popularity, any host inside of a subnet. */
+    SUBNETS
+  }
+
+  private static final int ZIPF_UNIVERSE = 1 << 26;
+  private static final int ISLAND_COUNT = 256;
+  private static final int SUBNET_COUNT = 4096;
+
+  private final Distribution distribution;
+  private final double duplicateRatio;
+  private final long seed;
+
+  // Salt of the rank to address mapping, so different seeds make different popular addresses
+  private final int salt;
+  private final int[] islands;
+  private final int[] subnets;
+
+  public IPv4ListGenerator(Distribution distribution, double duplicateRatio, long seed) {
+    if (!(duplicateRatio >= 0 && duplicateRatio < 1)) {
+      throw new IllegalArgumentException("Duplicate ratio should be in [0, 1)");
+    }
+    this.distribution = distribution;
+    this.duplicateRatio = duplicateRatio;
+    this.seed = seed;
+
+    SplittableRandom random = new SplittableRandom(seed);
+    this.salt = random.nextInt();
+    this.islands = new int[ISLAND_COUNT];
+    for (int i = 0; i < islands.length; i++) {
+      islands[i] = random.nextInt() & 0xFFFF0000;
+    }
+    this.subnets = new int[SUBNET_COUNT];
+    for (int i = 0; i < subnets.length; i++) {
+      subnets[i] = random.nextInt() & 0xFFFFFF00;
+    }
+  }
+
+  /** Generate list in memory, for small lists only. */
+  public byte[] generate(int lines) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(lines * MAX_LINE_LENGTH);
+    try {
+      write(out, lines, 1);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return out.toByteArray();
+  }
+
+  public void write(Path file, long lines, int threads) throws IOException {
+    try (OutputStream out = Files.newOutputStream(file)) {
+      write(out, lines, threads);
+    }
+  }
+
+  /**
+   * Write list to the stream. Blocks are generated by {@code threads} workers and written in order
+   * by the calling thread; at most 2 blocks per worker are in flight, so memory use is bounded.
+   */
+  public void write(OutputStream out, long lines, int threads) throws IOException {
+    if (lines < 0) {
+      throw new IllegalArgumentException("Line count can't be negative");
+    }
+    if (threads < 1) {
+      throw new IllegalArgumentException("Thread count should be positive");
+    }
+    long blockCount = (lines + BLOCK_LINES - 1) / BLOCK_LINES;
+    if (threads == 1 || blockCount < 2) {
+      byte[] buffer = new byte[BLOCK_LINES * MAX_LINE_LENGTH];
+      int[] addresses = new int[BLOCK_LINES];
+      for (long block = 0; block < blockCount; block++) {
+        int length = generateBlock(block, blockLines(block, lines), addresses, buffer);
+        out.write(buffer, 0, length);
+      }
+      return;
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      Deque<Future<byte[]>> inFlight = new ArrayDeque<>();
+      long nextBlock = 0;
+      while (nextBlock < blockCount || !inFlight.isEmpty()) {
+        while (nextBlock < blockCount && inFlight.size() < threads * 2) {
+          long block = nextBlock++;
+          int blockLines = blockLines(block, lines);
+          inFlight.add(executor.submit(() -> generateBlock(block, blockLines)));
+        }
+        out.write(await(inFlight.poll()));
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static int blockLines(long block, long lines) {
+    return (int) Math.min(BLOCK_LINES, lines - block * BLOCK_LINES);
+  }
+
+  private byte[] generateBlock(long block, int lines) {
+    byte[] buffer = new byte[lines * MAX_LINE_LENGTH];
+    int length = generateBlock(block, lines, new int[lines], buffer);
+    return Arrays.copyOf(buffer, length);
+  }
+
+  /** @return number of bytes written to the buffer. */
+  private int generateBlock(long block, int lines, int[] addresses, byte[] buffer) {
+    SplittableRandom random = new SplittableRandom(mix64(seed ^ mix64(block)));
+    int position = 0;
+    for (int i = 0; i < lines; i++) {
+      int address;
+      if (i > 0 && duplicateRatio > 0 && random.nextDouble() < duplicateRatio) {
+        address = addresses[random.nextInt(i)];
+      } else {
+        address = nextAddress(random);
+      }
+      addresses[i] = address;
+      position = writeLine(address, buffer, position);
+    }
+    return position;
+  }
+
+  private int nextAddress(SplittableRandom random) {
+    switch (distribution) {
+      case UNIFORM:
+        return random.nextInt();
+      case ZIPF:
+        return scatter(zipfRank(random, ZIPF_UNIVERSE));
+      case ISLANDS:
+        return islands[random.nextInt(ISLAND_COUNT)] | random.nextInt(1 << 16);
+      case SUBNETS:
+        return subnets[zipfRank(random, SUBNET_COUNT)] | random.nextInt(1 << 8);
+      default:
+        throw new IllegalStateException("Unknown distribution " + distribution);
+    }
+  }
+
+  /**
+   * Rank in [0, n) where probability of rank k is roughly proportional to 1 / (k + 1). Inverse of
+   * the continuous distribution, which is cheaper than exact discrete sampling and close enough.
+   */
+  private static int zipfRank(SplittableRandom random, int n) {
+    int rank = (int) Math.exp(random.nextDouble() * Math.log(n + 1)) - 1;
+    return Math.min(rank, n - 1);
+  }
+
+  /** Bijective mapping of rank to address, so popular addresses aren't all in 0.0.0.0/8. */
+  private int scatter(int rank) {
+    int x = (rank * 0x9E3779B9) ^ salt;
+    x ^= x >>> 16;
+    x *= 0x85EBCA6B;
+    x ^= x >>> 13;
+    return x;
+  }
+
+  private static int writeLine(int address, byte[] buffer, int position) {
+    position = writeOctet(address >>> 24, buffer, position);
+    buffer[position++] = '.';
+    position = writeOctet((address >>> 16) & 0xFF, buffer, position);
+    buffer[position++] = '.';
+    position = writeOctet((address >>> 8) & 0xFF, buffer, position);
+    buffer[position++] = '.';
+    position = writeOctet(address & 0xFF, buffer, position);
+    buffer[position++] = '\n';
+    return position;
+  }
+
+  private static int writeOctet(int octet, byte[] buffer, int position) {
+    byte[] digits = OCTETS[octet];
+    for (byte digit : digits) {
+      buffer[position++] = digit;
+    }
+    return position;
+  }
+
+  /** SplitMix64 finalizer. */
+  private static long mix64(long z) {
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+
+  private static byte[] await(Future<byte[]> task) throws IOException {
+    try {
+      return task.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for workers", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IllegalStateException("Worker failed", cause);
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.err.println(
+          "Usage: IPv4ListGenerator <file> <lines> [distribution] [duplicate ratio] [seed]"
+              + " [threads]");
+      System.exit(1);
+    }
+    Path file = Paths.get(args[0]);
+    long lines = Long.parseLong(args[1]);
+    Distribution distribution =
+        args.length > 2 ? Distribution.valueOf(args[2].toUpperCase()) : Distribution.UNIFORM;
+    double duplicateRatio = args.length > 3 ? Double.parseDouble(args[3]) : 0;
+    long seed = args.length > 4 ? Long.parseLong(args[4]) : 0;
+    int threads =
+        args.length > 5 ? Integer.parseInt(args[5]) : Runtime.getRuntime().availableProcessors();
+
+    long start = System.nanoTime();
+    new IPv4ListGenerator(distribution, duplicateRatio, seed).write(file, lines, threads);
+    long millis = (System.nanoTime() - start) / 1_000_000;
+    System.out.println("Generated " + lines + " lines in " + millis + " ms");
+  }
+}
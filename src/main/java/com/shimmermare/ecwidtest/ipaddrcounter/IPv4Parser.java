@@ -0,0 +1,130 @@
+package com.shimmermare.ecwidtest.ipaddrcounter;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Allocation-free IPv4 parser that works directly with ASCII bytes.
+ *
+ * <p>Dot splitting and octet validation are done in one pass. Instead of throwing, parser returns
+ * {@link #INVALID}, so callers decide what to do with bad input without exceptions on the hot
+ * path. Reason of the failure can be found later with {@link #describeError(byte[], int, int)}.
+ */
+public final class IPv4Parser {
+  /** Returned for anything that isn't a dotted-decimal IPv4. Real addresses are never negative. */
+  public static final long INVALID = -1;
+
+  private IPv4Parser() {}
+
+  /**
+   * Parse address from bytes [from, to).
+   *
+   * @return address as unsigned 32-bit value or {@link #INVALID}.
+   */
+  public static long parse(byte[] bytes, int from, int to) {
+    long address = 0;
+    int octet = 0;
+    int digits = 0;
+    int dots = 0;
+    for (int i = from; i < to; i++) {
+      int digit = bytes[i] - '0';
+      if (digit >= 0 && digit <= 9) {
+        octet = octet * 10 + digit;
+        if (octet > 255) {
+          return INVALID;
+        }
+        digits++;
+      } else if (bytes[i] == '.' && digits != 0 && dots < 3) {
+        address = (address << 8) | octet;
+        octet = 0;
+        digits = 0;
+        dots++;
+      } else {
+        return INVALID;
+      }
+    }
+    if (digits == 0 || dots != 3) {
+      return INVALID;
+    }
+    return (address << 8) | octet;
+  }
+
+  /**
+   * Same as {@link #parse(byte[], int, int)} but for absolute range [from, to) of the buffer. Buffer
+   * position and limit are ignored, so it's safe to use with shared or memory-mapped buffers.
+   */
+  public static long parse(ByteBuffer buffer, int from, int to) {
+    long address = 0;
+    int octet = 0;
+    int digits = 0;
+    int dots = 0;
+    for (int i = from; i < to; i++) {
+      byte b = buffer.get(i);
+      int digit = b - '0';
+      if (digit >= 0 && digit <= 9) {
+        octet = octet * 10 + digit;
+        if (octet > 255) {
+          return INVALID;
+        }
+        digits++;
+      } else if (b == '.' && digits != 0 && dots < 3) {
+        address = (address << 8) | octet;
+        octet = 0;
+        digits = 0;
+        dots++;
+      } else {
+        return INVALID;
+      }
+    }
+    if (digits == 0 || dots != 3) {
+      return INVALID;
+    }
+    return (address << 8) | octet;
+  }
+
+  /** Same as {@link #describeError(byte[], int, int)} for absolute range of the buffer. */
+  public static String describeError(ByteBuffer buffer, int from, int to) {
+    byte[] bytes = new byte[to - from];
+    buffer.duplicate().clear().position(from).get(bytes);
+    return describeError(bytes, 0, bytes.length);
+  }
+
+  /**
+   * Explain why {@link #parse(byte[], int, int)} rejected the bytes. Slow, only for error path.
+   *
+   * @return human-readable reason or null if bytes are a valid address.
+   */
+  public static String describeError(byte[] bytes, int from, int to) {
+    int octetPos = 0;
+    int octet = 0;
+    int digits = 0;
+    for (int i = from; i < to; i++) {
+      byte b = bytes[i];
+      if (b >= '0' && b <= '9') {
+        octet = octet * 10 + (b - '0');
+        if (octet > 255) {
+          return octetPos + " octet is not a 8-bit integer";
+        }
+        digits++;
+      } else if (b == '.') {
+        if (digits == 0) {
+          return octetPos + " octet is empty";
+        }
+        if (octetPos == 3) {
+          return "IPv4 should have 4 octets separated by dots";
+        }
+        octet = 0;
+        digits = 0;
+        octetPos++;
+      } else {
+        return "Unexpected character with code " + (b & 0xFF) + " at position " + (i - from);
+      }
+    }
+    if (octetPos != 3) {
+      return "IPv4 should have 4 octets separated by dots";
+    }
+    if (digits == 0) {
+      return octetPos + " octet is empty";
+    }
+    return null;
+  }
+}
@@ -0,0 +1,124 @@
+package com.shimmermare.ecwidtest.ipaddrcounter;
+
+/**
+ * Set of 128-bit addresses as an open-addressing hash table over one {@code long[]}: two longs per
+ * slot, no boxing, no per-entry objects. Memory is predictable: 16 bytes per slot, and table is
+ * kept at most {@link #MAX_LOAD_FACTOR} full, so it's 23-46 bytes per address.
+ *
+ * <p>All-zero address marks empty slot, so it's tracked with a separate flag.
+ */
+public final class IPv6AddressSet {
+  static final double MAX_LOAD_FACTOR = 0.7;
+  // Two longs per slot, so table length still fits into int
+  private static final int MAX_CAPACITY = 1 << 29;
+
+  private long[] table;
+  private int mask;
+  private int resizeThreshold;
+  private long size;
+  private boolean containsZero;
+
+  public IPv6AddressSet() {
+    this(1024);
+  }
+
+  public IPv6AddressSet(int expectedSize) {
+    double needed = expectedSize / MAX_LOAD_FACTOR;
+    int capacity = 16;
+    while (capacity < needed && capacity < MAX_CAPACITY) {
+      capacity <<= 1;
+    }
+    allocate(capacity);
+  }
+
+  /** @return true if address wasn't in the set before. */
+  public boolean add(long high, long low) {
+    if (high == 0 && low == 0) {
+      if (containsZero) {
+        return false;
+      }
+      containsZero = true;
+      size++;
+      return true;
+    }
+    if (insert(table, mask, high, low)) {
+      size++;
+      if (size > resizeThreshold) {
+        resize();
+      }
+      return true;
+    }
+    return false;
+  }
+
+  public boolean contains(long high, long low) {
+    if (high == 0 && low == 0) {
+      return containsZero;
+    }
+    int slot = hash(high, low) & mask;
+    while (true) {
+      long slotHigh = table[slot * 2];
+      long slotLow = table[slot * 2 + 1];
+      if (slotHigh == high && slotLow == low) {
+        return true;
+      }
+      if (slotHigh == 0 && slotLow == 0) {
+        return false;
+      }
+      slot = (slot + 1) & mask;
+    }
+  }
+
+  public long size() {
+    return size;
+  }
+
+  /** @return bytes taken by the table. */
+  public long tableBytes() {
+    return (long) table.length * Long.BYTES;
+  }
+
+  private static boolean insert(long[] table, int mask, long high, long low) {
+    int slot = hash(high, low) & mask;
+    while (true) {
+      long slotHigh = table[slot * 2];
+      long slotLow = table[slot * 2 + 1];
+      if (slotHigh == 0 && slotLow == 0) {
+        table[slot * 2] = high;
+        table[slot * 2 + 1] = low;
+        return true;
+      }
+      if (slotHigh == high && slotLow == low) {
+        return false;
+      }
+      slot = (slot + 1) & mask;
+    }
+  }
+
+  private void resize() {
+    int capacity = mask + 1;
+    if (capacity == MAX_CAPACITY) {
+      throw new IllegalStateException("IPv6 set is full");
+    }
+    long[] old = table;
+    allocate(capacity << 1);
+    for (int i = 0; i < old.length; i += 2) {
+      if (old[i] != 0 || old[i + 1] != 0) {
+        insert(table, mask, old[i], old[i + 1]);
+      }
+    }
+  }
+
+  private void allocate(int capacity) {
+    table = new long[capacity * 2];
+    mask = capacity - 1;
+    resizeThreshold = (int) (capacity * MAX_LOAD_FACTOR);
+  }
+
+  /** Addresses share long prefixes and often have tiny interface ids, so mix all the bits. */
+  private static int hash(long high, long low) {
+    long h = high * 0x9E3779B97F4A7C15L + low;
+    h = (h ^ (h >>> 32)) * 0xD6E8FEB86659FD93L;
+    return (int) (h ^ (h >>> 32));
+  }
+}
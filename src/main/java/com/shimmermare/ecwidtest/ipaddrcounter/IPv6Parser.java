@@ -0,0 +1,126 @@
+package com.shimmermare.ecwidtest.ipaddrcounter;
+
+/**
+ * Allocation-free IPv6 parser for the RFC 4291 text forms: full form, {@code ::} compression and
+ * embedded IPv4 in the last 32 bits. Zone indexes aren't supported.
+ *
+ * <p>128-bit address is returned through caller-provided {@code long[2]}: high 64 bits first.
+ */
+public final class IPv6Parser {
+  private static final int GROUPS = 8;
+
+  private IPv6Parser() {}
+
+  /**
+   * Parse address from bytes [from, to) into {@code out[0]} (high bits) and {@code out[1]} (low
+   * bits). On failure {@code out} content is undefined.
+   *
+   * @return false if bytes aren't a valid IPv6.
+   */
+  public static boolean parse(byte[] bytes, int from, int to, long[] out) {
+    if (to - from < 2) {
+      return false;
+    }
+    // Groups before "::" are placed from the left, groups after it are shifted in from the right
+    long headHi = 0;
+    long headLo = 0;
+    int headCount = 0;
+    long tailHi = 0;
+    long tailLo = 0;
+    int tailCount = 0;
+    boolean compressed = false;
+
+    int i = from;
+    if (bytes[i] == ':') {
+      if (bytes[i + 1] != ':') {
+        return false;
+      }
+      compressed = true;
+      i += 2;
+    }
+    while (i < to) {
+      int start = i;
+      int value = 0;
+      int digits = 0;
+      for (; i < to; i++) {
+        int digit = hexDigit(bytes[i]);
+        if (digit < 0) {
+          break;
+        }
+        value = (value << 4) | digit;
+        digits++;
+      }
+
+      int groups = 1;
+      if (i < to && bytes[i] == '.') {
+        // Embedded IPv4 takes the rest of the line
+        long ipv4 = IPv4Parser.parse(bytes, start, to);
+        if (ipv4 == IPv4Parser.INVALID) {
+          return false;
+        }
+        value = (int) ipv4;
+        groups = 2;
+        i = to;
+      } else if (digits == 0 || digits > 4) {
+        return false;
+      }
+
+      for (int k = groups - 1; k >= 0; k--) {
+        long group = (value >>> (16 * k)) & 0xFFFF;
+        if (!compressed) {
+          if (headCount == GROUPS) {
+            return false;
+          }
+          if (headCount < 4) {
+            headHi |= group << ((3 - headCount) * 16);
+          } else {
+            headLo |= group << ((7 - headCount) * 16);
+          }
+          headCount++;
+        } else {
+          if (headCount + tailCount == GROUPS - 1) {
+            return false;
+          }
+          tailHi = (tailHi << 16) | (tailLo >>> 48);
+          tailLo = (tailLo << 16) | group;
+          tailCount++;
+        }
+      }
+
+      if (i == to) {
+        break;
+      }
+      if (bytes[i] != ':' || ++i == to) {
+        return false;
+      }
+      if (bytes[i] == ':') {
+        if (compressed) {
+          return false;
+        }
+        compressed = true;
+        i++;
+      }
+    }
+
+    // "::" stands for at least one zero group
+    if (compressed ? headCount + tailCount >= GROUPS : headCount != GROUPS) {
+      return false;
+    }
+    out[0] = headHi | tailHi;
+    out[1] = headLo | tailLo;
+    return true;
+  }
+
+  private static int hexDigit(byte b) {
+    if (b >= '0' && b <= '9') {
+      return b - '0';
+    }
+    if (b >= 'a' && b <= 'f') {
+      return b - 'a' + 10;
+    }
+    if (b >= 'A' && b <= 'F') {
+      return b - 'A' + 10;
+    }
+    return -1;
+  }
+}
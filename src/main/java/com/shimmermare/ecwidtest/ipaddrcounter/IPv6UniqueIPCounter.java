@@ -0,0 +1,52 @@
+package com.shimmermare.ecwidtest.ipaddrcounter;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Unique IP counter for mixed IPv4 and IPv6 input.
+ *
+ * <p>IPv6 can't use a bitmap like {@link ChunkedUniqueIPCounter}, so addresses are stored in
+ * {@link IPv6AddressSet}. IPv4 lines are counted as IPv4-mapped IPv6 ({@code ::ffff:a.b.c.d}), so
+ * the same address in both forms is counted once.
+ */
+public final class IPv6UniqueIPCounter implements UniqueIPCounter {
+  private static final long IPv4_MAPPED_PREFIX = 0xFFFF_0000_0000L;
+
+  private final InputStream in;
+  private long currentLine;
+
+  private final IPv6AddressSet addresses;
+  private final long[] parsed;
+
+  public IPv6UniqueIPCounter(InputStream in) {
+    this(in, new IPv6AddressSet());
+  }
+
+  public IPv6UniqueIPCounter(InputStream in, IPv6AddressSet addresses) {
+    this.in = in;
+    this.addresses = addresses;
+    this.parsed = new long[2];
+  }
+
+  @Override
+  public long count() throws IOException {
+    LineReader reader = new LineReader(in);
+    while (reader.next()) {
+      byte[] bytes = reader.buffer();
+      int from = reader.lineStart();
+      int to = reader.lineEnd();
+      if (IPv6Parser.parse(bytes, from, to, parsed)) {
+        addresses.add(parsed[0], parsed[1]);
+      } else {
+        long ipv4 = IPv4Parser.parse(bytes, from, to);
+        if (ipv4 == IPv4Parser.INVALID) {
+          throw new IllegalArgumentException("Line " + currentLine + " is not a valid IPv4 or IPv6");
+        }
+        addresses.add(0, IPv4_MAPPED_PREFIX | ipv4);
+      }
+      currentLine++;
+    }
+    return addresses.size();
+  }
+}
@@ -0,0 +1,67 @@
+package com.shimmermare.ecwidtest.ipaddrcounter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/** Implementations of {@link InvalidLinePolicy}. */
+final class InvalidLinePolicies {
+  private InvalidLinePolicies() {}
+
+  /** Counting code checks for this one itself, to throw with the reason of parse failure. */
+  static final class FailFast implements InvalidLinePolicy {
+    static final FailFast INSTANCE = new FailFast();
+
+    @Override
+    public void reject(long line, byte[] bytes, int from, int to) {
+      throw new IllegalArgumentException("Line " + line + " is not a valid IPv4");
+    }
+
+    @Override
+    public String toString() {
+      return "fail fast";
+    }
+  }
+
+  static final class Skip implements InvalidLinePolicy {
+    static final Skip INSTANCE = new Skip();
+
+    @Override
+    public void reject(long line, byte[] bytes, int from, int to) {}
+
+    @Override
+    public String toString() {
+      return "skip";
+    }
+  }
+
+  static final class Quarantine implements InvalidLinePolicy {
+    private final OutputStream rejects;
+    // Reused for every rejected line, grows to the longest one
+    private byte[] buffer = new byte[256];
+
+    Quarantine(OutputStream rejects) {
+      this.rejects = rejects;
+    }
+
+    @Override
+    public void reject(long line, byte[] bytes, int from, int to) throws IOException {
+      byte[] number = Long.toString(line).getBytes(StandardCharsets.US_ASCII);
+      int length = number.length + 1 + (to - from) + 1;
+      if (buffer.length < length) {
+        buffer = Arrays.copyOf(buffer, Math.max(length, buffer.length * 2));
+      }
+      System.arraycopy(number, 0, buffer, 0, number.length);
+      buffer[number.length] = '\t';
+      System.arraycopy(bytes, from, buffer, number.length + 1, to - from);
+      buffer[length - 1] = '\n';
+      rejects.write(buffer, 0, length);
+    }
+
+    @Override
+    public String toString() {
+      return "quarantine";
+    }
+  }
+}
@@ -0,0 +1,43 @@
+package com.shimmermare.ecwidtest.ipaddrcounter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * What to do with lines that have no valid IPv4: stop counting, skip them, or skip and keep them
+ * aside for later inspection. Production logs always have a few truncated or garbage lines, and
+ * failing a long count because of them is rarely what's wanted.
+ *
+ * <p>Invalid lines are recognized by {@link IPv4Parser#INVALID}, not by exceptions, so skipping a
+ * line costs the same as parsing a good one. Either way they are counted in {@link
+ * CountingMetrics}.
+ */
+public interface InvalidLinePolicy {
+  /**
+   * Handle the invalid line [from, to). Bytes are only valid during the call.
+   *
+   * @param line zero-based number of the line in its input, same as in error messages, or -1 for
+   *     lines added one by one.
+   * @throws IllegalArgumentException to stop counting. Lines before it are counted, same as when
+   *     an {@link IOException} is thrown.
+   */
+  void reject(long line, byte[] bytes, int from, int to) throws IOException;
+
+  /** Throw on the first invalid line. Lines before it are counted. This is the default. */
+  static InvalidLinePolicy failFast() {
+    return InvalidLinePolicies.FailFast.INSTANCE;
+  }
+
+  /** Skip invalid lines, their number is in {@link CountingMetrics#getInvalidLines()}. */
+  static InvalidLinePolicy skip() {
+    return InvalidLinePolicies.Skip.INSTANCE;
+  }
+
+  /**
+   * Skip invalid lines and write them to the stream as {@code <line number>\t<line>\n}, one write
+   * per line. Stream isn't closed, it's up to the caller.
+   */
+  static InvalidLinePolicy quarantine(OutputStream rejects) {
+    return new InvalidLinePolicies.Quarantine(rejects);
+  }
+}
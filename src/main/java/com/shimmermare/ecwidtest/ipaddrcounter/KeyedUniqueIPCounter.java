@@ -0,0 +1,95 @@
+package com.shimmermare.ecwidtest.ipaddrcounter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Unique addresses per key, e.g. per tenant or ASN, in one pass.
+ *
+ * <p>Having a {@link ChunkedUniqueIPCounter} per key costs 4 MB of block index for every key even
+ * if it has a couple of addresses. Here every key has a small hash map from block index to block,
+ * created on first address, and all blocks come from one shared pool. Removed keys return their
+ * blocks to the pool, so key churn doesn't grow memory.
+ *
+ * <p>Use {@link #histogram(Object, int)} or {@link SubnetHistogram} of a global bitmap for per
+ * subnet counts.
+ *
+ * <p>Not thread-safe.
+ *
+ * @param <K> key type with proper equals and hashCode.
+ */
+public final class KeyedUniqueIPCounter<K> {
+  private final BlockPool pool = new BlockPool();
+  private final Map<K, PooledBitmap> bitmaps = new HashMap<>();
+
+  /** @return true if address wasn't seen for this key before. */
+  public boolean add(K key, int address) {
+    PooledBitmap bitmap = bitmaps.get(key);
+    if (bitmap == null) {
+      bitmap = new PooledBitmap(pool);
+      bitmaps.put(key, bitmap);
+    }
+    return bitmap.add(address);
+  }
+
+  /** @return number of unique addresses of the key, 0 if it's unknown. */
+  public long count(K key) {
+    PooledBitmap bitmap = bitmaps.get(key);
+    return bitmap == null ? 0 : bitmap.cardinality();
+  }
+
+  /**
+   * @return addresses of the key or null if it's unknown. Bitmap is live and shares storage with
+   *     this counter, so it's only valid until key is removed.
+   */
+  public AddressBitmap bitmap(K key) {
+    return bitmaps.get(key);
+  }
+
+  public Set<K> keys() {
+    return Collections.unmodifiableSet(bitmaps.keySet());
+  }
+
+  /** Forget the key and return its blocks to the pool. */
+  public void remove(K key) {
+    PooledBitmap bitmap = bitmaps.remove(key);
+    if (bitmap != null) {
+      bitmap.release();
+    }
+  }
+
+  /** @return at most n keys with the most unique addresses, largest first. */
+  public List<Map.Entry<K, Long>> top(int n) {
+    if (n < 0) {
+      throw new IllegalArgumentException("N can't be negative");
+    }
+    List<Map.Entry<K, Long>> entries = new ArrayList<>(bitmaps.size());
+    for (Map.Entry<K, PooledBitmap> entry : bitmaps.entrySet()) {
+      entries.add(Map.entry(entry.getKey(), entry.getValue().cardinality()));
+    }
+    entries.sort(Map.Entry.<K, Long>comparingByValue(Comparator.reverseOrder()));
+    return new ArrayList<>(entries.subList(0, Math.min(n, entries.size())));
+  }
+
+  /**
+   * @return per subnet counts of the key, empty if key is unknown. Only populated blocks of the
+   *     key are visited.
+   */
+  public SubnetHistogram histogram(K key, int prefixLength) {
+    PooledBitmap bitmap = bitmaps.get(key);
+    if (bitmap == null) {
+      return SubnetHistogram.of(new PooledBitmap(pool), prefixLength, new int[0]);
+    }
+    return SubnetHistogram.of(bitmap, prefixLength, bitmap.populatedBlockIndexes());
+  }
+
+  /** @return bytes of the shared block pool, not including per-key maps. */
+  public long allocatedBytes() {
+    return pool.allocatedBytes();
+  }
+}
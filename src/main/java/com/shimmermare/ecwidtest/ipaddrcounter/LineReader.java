@@ -0,0 +1,116 @@
+package com.shimmermare.ecwidtest.ipaddrcounter;
+
+import com.shimmermare.ecwidtest.threadlocal.ThreadLocalPool;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Splits input stream into lines without decoding them. Current line is exposed as a range of the
+ * internal buffer and is only valid until the next {@link #next()} call.
+ *
+ * <p>Line separator is LF, trailing CR is dropped. Same as with {@link
+ * java.io.BufferedReader#readLine()}, there's no empty line after the last line separator.
+ */
+final class LineReader {
+  static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * Buffers of default size for readers that are created over and over on the same threads, e.g.
+   * for every input of an accumulator. Contents aren't cleared, reader overwrites them anyway.
+   */
+  static final ThreadLocalPool<byte[]> BUFFERS =
+      new ThreadLocalPool<>(() -> new byte[DEFAULT_BUFFER_SIZE]);
+
+  private final InputStream in;
+  private byte[] buffer;
+  private int position;
+  private int limit;
+  private boolean eof;
+
+  // Offset of buffer[0] in the stream
+  private long bufferOffset;
+
+  private int lineStart;
+  private int lineEnd;
+
+  LineReader(InputStream in) {
+    this(in, new byte[DEFAULT_BUFFER_SIZE]);
+  }
+
+  LineReader(InputStream in, byte[] buffer) {
+    this.in = in;
+    this.buffer = buffer;
+  }
+
+  /** @return false if there are no more lines. */
+  boolean next() throws IOException {
+    int scanFrom = position;
+    while (true) {
+      for (int i = scanFrom; i < limit; i++) {
+        if (buffer[i] == '\n') {
+          setLine(position, i);
+          position = i + 1;
+          return true;
+        }
+      }
+      if (eof) {
+        if (position < limit) {
+          setLine(position, limit);
+          position = limit;
+          return true;
+        }
+        return false;
+      }
+      scanFrom = limit - position;
+      fill();
+    }
+  }
+
+  byte[] buffer() {
+    return buffer;
+  }
+
+  int lineStart() {
+    return lineStart;
+  }
+
+  int lineEnd() {
+    return lineEnd;
+  }
+
+  /** @return offset of the current line start in the stream. */
+  long lineOffset() {
+    return bufferOffset + lineStart;
+  }
+
+  /** @return number of bytes read so far, up to the end of the current line and its separator. */
+  long consumed() {
+    return bufferOffset + position;
+  }
+
+  private void setLine(int start, int end) {
+    lineStart = start;
+    lineEnd = end > start && buffer[end - 1] == '\r' ? end - 1 : end;
+  }
+
+  /** Move unprocessed tail to the buffer start and read as much as possible after it. */
+  private void fill() throws IOException {
+    int remaining = limit - position;
+    if (position > 0) {
+      System.arraycopy(buffer, position, buffer, 0, remaining);
+      bufferOffset += position;
+    } else if (remaining == buffer.length) {
+      // Line doesn't fit into buffer
+      buffer = Arrays.copyOf(buffer, buffer.length * 2);
+    }
+    position = 0;
+    limit = remaining;
+    int read = in.read(buffer, limit, buffer.length - limit);
+    if (read == -1) {
+      eof = true;
+    } else {
+      limit += read;
+    }
+  }
+}
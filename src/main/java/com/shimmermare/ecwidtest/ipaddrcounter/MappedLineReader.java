@@ -0,0 +1,109 @@
+package com.shimmermare.ecwidtest.ipaddrcounter;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Splits memory-mapped file into lines. Same contract as {@link LineReader}, but bytes are read
+ * straight from the OS page cache without copying them into Java heap.
+ *
+ * <p>{@link MappedByteBuffer} can't be larger than 2 GB, so the file is mapped in windows. When a
+ * line crosses the end of the window, next window is mapped from the start of that line, so every
+ * line is always fully inside one window.
+ */
+final class MappedLineReader {
+  static final long MAX_WINDOW_SIZE = Integer.MAX_VALUE;
+
+  private final FileChannel channel;
+  private final long fileSize;
+  private final long windowSize;
+
+  private MappedByteBuffer window;
+  // Offset of the window in the file
+  private long windowOffset;
+  private int position;
+  private int limit;
+
+  private int lineStart;
+  private int lineEnd;
+
+  MappedLineReader(FileChannel channel) throws IOException {
+    this(channel, MAX_WINDOW_SIZE);
+  }
+
+  MappedLineReader(FileChannel channel, long windowSize) throws IOException {
+    if (windowSize < 1 || windowSize > MAX_WINDOW_SIZE) {
+      throw new IllegalArgumentException("Window size should be in [1, " + MAX_WINDOW_SIZE + "]");
+    }
+    this.channel = channel;
+    this.fileSize = channel.size();
+    this.windowSize = windowSize;
+    map(0);
+  }
+
+  /** @return false if there are no more lines. */
+  boolean next() throws IOException {
+    int scanFrom = position;
+    while (true) {
+      for (int i = scanFrom; i < limit; i++) {
+        if (window.get(i) == '\n') {
+          setLine(position, i);
+          position = i + 1;
+          return true;
+        }
+      }
+      if (windowOffset + limit == fileSize) {
+        if (position < limit) {
+          setLine(position, limit);
+          position = limit;
+          return true;
+        }
+        return false;
+      }
+      if (position == 0) {
+        throw new IOException(
+            "Line at offset " + windowOffset + " is longer than mapping window of " + windowSize);
+      }
+      // Line crosses the window end, remap starting from it
+      scanFrom = limit - position;
+      map(windowOffset + position);
+    }
+  }
+
+  MappedByteBuffer buffer() {
+    return window;
+  }
+
+  int lineStart() {
+    return lineStart;
+  }
+
+  int lineEnd() {
+    return lineEnd;
+  }
+
+  /** @return offset of the current line start in the file. */
+  long lineOffset() {
+    return windowOffset + lineStart;
+  }
+
+  /** @return number of bytes read so far, up to the end of the current line and its separator. */
+  long consumed() {
+    return windowOffset + position;
+  }
+
+  private void setLine(int start, int end) {
+    lineStart = start;
+    lineEnd = end > start && window.get(end - 1) == '\r' ? end - 1 : end;
+  }
+
+  private void map(long offset) throws IOException {
+    long size = Math.min(windowSize, fileSize - offset);
+    // Previous window is unmapped when collected by GC, there's no public API to do it sooner
+    window = channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+    windowOffset = offset;
+    position = 0;
+    limit = (int) size;
+  }
+}
@@ -0,0 +1,128 @@
+package com.shimmermare.ecwidtest.ipaddrcounter;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Flat bitmap for the whole address space (512 MB) stored outside of Java heap.
+ *
+ * <p>One direct {@link ByteBuffer} is limited to 2 GB and allocating 512 MB at once for a handful of
+ * addresses is wasteful, so the bitmap is split into segments of {@link #SEGMENT_SIZE} bytes that
+ * are allocated on first write. Addressing is plain word arithmetic: address / 64 is a word index,
+ * high bits of the word index select segment.
+ *
+ * <p>GC never scans the bitmap, and there's no per-block object overhead, so it's preferred when
+ * most of the address space is populated. Direct memory is limited by {@code
+ * -XX:MaxDirectMemorySize}, which defaults to max heap size.
+ */
+public final class OffHeapBitmap implements AddressBitmap {
+  private static final int WORD_SHIFT = 6;
+  private static final int SEGMENT_WORD_SHIFT = 23;
+  private static final int SEGMENT_WORD_MASK = (1 << SEGMENT_WORD_SHIFT) - 1;
+  private static final int BLOCK_WORD_SHIFT = 6;
+
+  /** 64 MB: 2^23 words of 8 bytes. */
+  public static final int SEGMENT_SIZE = (1 << SEGMENT_WORD_SHIFT) * Long.BYTES;
+
+  private static final int SEGMENT_COUNT = (int) (IPv4_RANGE / Byte.SIZE / SEGMENT_SIZE);
+
+  private final ByteBuffer[] segments;
+  private long cardinality;
+
+  public OffHeapBitmap() {
+    this.segments = new ByteBuffer[SEGMENT_COUNT];
+  }
+
+  @Override
+  public boolean add(int address) {
+    int wordIndex = address >>> WORD_SHIFT;
+    ByteBuffer segment = segmentForWrite(wordIndex);
+    int offset = (wordIndex & SEGMENT_WORD_MASK) << 3;
+    long word = segment.getLong(offset);
+    long mask = 1L << address;
+    if ((word & mask) != 0) {
+      return false;
+    }
+    segment.putLong(offset, word | mask);
+    cardinality++;
+    return true;
+  }
+
+  @Override
+  public boolean contains(int address) {
+    int wordIndex = address >>> WORD_SHIFT;
+    ByteBuffer segment = segments[wordIndex >>> SEGMENT_WORD_SHIFT];
+    if (segment == null) {
+      return false;
+    }
+    return (segment.getLong((wordIndex & SEGMENT_WORD_MASK) << 3) & (1L << address)) != 0;
+  }
+
+  @Override
+  public long cardinality() {
+    return cardinality;
+  }
+
+  /** @return bytes of direct memory allocated for segments. */
+  @Override
+  public long estimatedBytes() {
+    return allocatedBytes();
+  }
+
+  public long allocatedBytes() {
+    long allocated = 0;
+    for (ByteBuffer segment : segments) {
+      if (segment != null) {
+        allocated += SEGMENT_SIZE;
+      }
+    }
+    return allocated;
+  }
+
+  @Override
+  public boolean readBlock(int blockIndex, long[] words) {
+    int firstWord = blockIndex << BLOCK_WORD_SHIFT;
+    ByteBuffer segment = segments[firstWord >>> SEGMENT_WORD_SHIFT];
+    if (segment == null) {
+      return false;
+    }
+    int offset = (firstWord & SEGMENT_WORD_MASK) << 3;
+    long any = 0;
+    for (int i = 0; i < BLOCK_WORDS; i++) {
+      long word = segment.getLong(offset + i * Long.BYTES);
+      words[i] = word;
+      any |= word;
+    }
+    return any != 0;
+  }
+
+  @Override
+  public long orBlock(int blockIndex, long[] words) {
+    int firstWord = blockIndex << BLOCK_WORD_SHIFT;
+    ByteBuffer segment = segmentForWrite(firstWord);
+    int offset = (firstWord & SEGMENT_WORD_MASK) << 3;
+    long added = 0;
+    for (int i = 0; i < BLOCK_WORDS; i++) {
+      int wordOffset = offset + i * Long.BYTES;
+      long word = segment.getLong(wordOffset);
+      long merged = word | words[i];
+      if (merged != word) {
+        segment.putLong(wordOffset, merged);
+        added += Long.bitCount(merged) - Long.bitCount(word);
+      }
+    }
+    cardinality += added;
+    return added;
+  }
+
+  private ByteBuffer segmentForWrite(int wordIndex) {
+    int segmentIndex = wordIndex >>> SEGMENT_WORD_SHIFT;
+    ByteBuffer segment = segments[segmentIndex];
+    if (segment == null) {
+      // Direct buffers are zeroed on allocation
+      segment = ByteBuffer.allocateDirect(SEGMENT_SIZE).order(ByteOrder.nativeOrder());
+      segments[segmentIndex] = segment;
+    }
+    return segment;
+  }
+}
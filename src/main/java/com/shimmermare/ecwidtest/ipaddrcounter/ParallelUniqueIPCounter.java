@@ -0,0 +1,261 @@
+package com.shimmermare.ecwidtest.ipaddrcounter;
+
+import static com.shimmermare.ecwidtest.ipaddrcounter.AddressBitmap.BLOCK_COUNT;
+import static com.shimmermare.ecwidtest.ipaddrcounter.AddressBitmap.BLOCK_SIZE;
+import static com.shimmermare.ecwidtest.ipaddrcounter.AddressBitmap.BLOCK_WORDS;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Multi-threaded version of {@link ChunkedUniqueIPCounter} that works with files.
+ *
+ * <p>File is split into byte ranges of roughly the same size, and every range boundary is moved
+ * forward to the nearest line start. This way each line belongs to exactly one range, and ranges
+ * can be parsed independently by their own workers.
+ *
+ * <p>All workers mark into one shared chunked bitmap. Blocks are created lazily with CAS on the
+ * block array, and bits are set with CAS on the 64-bit word. Every worker counts bits that were set
+ * by it for the first time, so the sum of worker counts is exactly the number of unique addresses,
+ * same as single-threaded count.
+ *
+ * <p>Gzip file can't be split into ranges, so it's inflated by {@link GzipPipelineInputStream} with
+ * the same number of threads and parsed by the calling thread.
+ */
+public final class ParallelUniqueIPCounter implements UniqueIPCounter {
+  private final Path file;
+  private final int threads;
+  private final FieldExtractor extractor;
+
+  public ParallelUniqueIPCounter(Path file) {
+    this(file, Runtime.getRuntime().availableProcessors());
+  }
+
+  public ParallelUniqueIPCounter(Path file, int threads) {
+    this(file, threads, FieldExtractor.wholeLine());
+  }
+
+  public ParallelUniqueIPCounter(Path file, int threads, FieldExtractor extractor) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("Thread count should be positive");
+    }
+    this.file = file;
+    this.threads = threads;
+    this.extractor = extractor;
+  }
+
+  /** Every call counts the file again from scratch. */
+  @Override
+  public long count() throws IOException {
+    // Blocks of the bitmap shared by workers of this call
+    AtomicReferenceArray<AtomicLongArray> blocks = new AtomicReferenceArray<>(BLOCK_COUNT);
+    if (GzipPipelineInputStream.isGzip(file)) {
+      try (InputStream in = GzipPipelineInputStream.open(file, threads)) {
+        return countStream(in, 0, blocks);
+      }
+    }
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long[] bounds = split(channel, threads);
+      if (bounds.length == 2) {
+        // Not worth spawning threads for single range
+        return countRange(channel, bounds[0], bounds[1], blocks);
+      }
+
+      ExecutorService executor = Executors.newFixedThreadPool(bounds.length - 1);
+      try {
+        List<Future<Long>> tasks = new ArrayList<>();
+        for (int i = 0; i < bounds.length - 1; i++) {
+          long start = bounds[i];
+          long end = bounds[i + 1];
+          tasks.add(executor.submit(() -> countRange(channel, start, end, blocks)));
+        }
+        long uniqueCount = 0;
+        for (Future<Long> task : tasks) {
+          uniqueCount += await(task);
+        }
+        return uniqueCount;
+      } finally {
+        executor.shutdownNow();
+      }
+    }
+  }
+
+  /**
+   * Split file into at most {@code parts} newline-aligned ranges.
+   *
+   * @return range bounds, where range i is [bounds[i], bounds[i + 1]).
+   */
+  static long[] split(FileChannel channel, int parts) throws IOException {
+    long size = channel.size();
+    List<Long> bounds = new ArrayList<>();
+    bounds.add(0L);
+    ByteBuffer buffer = ByteBuffer.allocate(256);
+    for (int i = 1; i < parts; i++) {
+      long previous = bounds.get(bounds.size() - 1);
+      long target = Math.max(previous, size / parts * i);
+      long lineStart = nextLineStart(channel, target, buffer);
+      if (lineStart >= size) {
+        break;
+      }
+      if (lineStart > previous) {
+        bounds.add(lineStart);
+      }
+    }
+    bounds.add(size);
+    return bounds.stream().mapToLong(Long::longValue).toArray();
+  }
+
+  /** Find first line start that is at or after the position. */
+  private static long nextLineStart(FileChannel channel, long position, ByteBuffer buffer)
+      throws IOException {
+    if (position == 0) {
+      return 0;
+    }
+    // Line starts at position only if previous byte is a line feed
+    long current = position - 1;
+    while (true) {
+      buffer.clear();
+      int read = channel.read(buffer, current);
+      if (read <= 0) {
+        return channel.size();
+      }
+      for (int i = 0; i < read; i++) {
+        if (buffer.get(i) == '\n') {
+          return current + i + 1;
+        }
+      }
+      current += read;
+    }
+  }
+
+  private long countRange(
+      FileChannel channel, long start, long end, AtomicReferenceArray<AtomicLongArray> blocks)
+      throws IOException {
+    return countStream(new RangeInputStream(channel, start, end), start, blocks);
+  }
+
+  private long countStream(InputStream in, long start, AtomicReferenceArray<AtomicLongArray> blocks)
+      throws IOException {
+    byte[] buffer = LineReader.BUFFERS.borrow();
+    try {
+      return countLines(new LineReader(in, buffer), start, blocks);
+    } finally {
+      LineReader.BUFFERS.release(buffer);
+    }
+  }
+
+  private long countLines(
+      LineReader reader, long start, AtomicReferenceArray<AtomicLongArray> blocks)
+      throws IOException {
+    long uniqueCount = 0;
+    while (reader.next()) {
+      byte[] bytes = reader.buffer();
+      long address = extractor.extract(bytes, reader.lineStart(), reader.lineEnd());
+      if (address == IPv4Parser.INVALID) {
+        // Line number is unknown without reading previous ranges, so report byte offset instead
+        String line = "Line at offset " + (start + reader.lineOffset());
+        if (extractor != FieldExtractor.wholeLine()) {
+          throw new IllegalArgumentException(line + " has no valid IPv4 in " + extractor);
+        }
+        String reason = IPv4Parser.describeError(bytes, reader.lineStart(), reader.lineEnd());
+        throw new IllegalArgumentException(
+            line + " is not a valid IPv4", new IllegalArgumentException(reason));
+      }
+      if (mark(blocks, address)) {
+        uniqueCount++;
+      }
+    }
+    return uniqueCount;
+  }
+
+  /** @return true if bit wasn't set before. */
+  private static boolean mark(AtomicReferenceArray<AtomicLongArray> blocks, long address) {
+    int blockIndex = (int) (address / BLOCK_SIZE);
+    int indexInBlock = (int) (address % BLOCK_SIZE);
+
+    AtomicLongArray block = blocks.get(blockIndex);
+    if (block == null) {
+      // Several workers may race to create the same block; only one of them wins
+      AtomicLongArray created = new AtomicLongArray(BLOCK_WORDS);
+      block = blocks.compareAndExchange(blockIndex, null, created);
+      if (block == null) {
+        block = created;
+      }
+    }
+
+    int wordIndex = indexInBlock / Long.SIZE;
+    long mask = 1L << (indexInBlock % Long.SIZE);
+    long word = block.get(wordIndex);
+    while ((word & mask) == 0) {
+      long witness = block.compareAndExchange(wordIndex, word, word | mask);
+      if (witness == word) {
+        return true;
+      }
+      word = witness;
+    }
+    return false;
+  }
+
+  private static long await(Future<Long> task) throws IOException {
+    try {
+      return task.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for workers", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IllegalStateException("Worker failed", cause);
+    }
+  }
+
+  /** Reads [start, end) of the channel with positional reads, so it can be shared by workers. */
+  private static final class RangeInputStream extends InputStream {
+    private final FileChannel channel;
+    private final long end;
+    private long position;
+
+    private RangeInputStream(FileChannel channel, long start, long end) {
+      this.channel = channel;
+      this.position = start;
+      this.end = end;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] single = new byte[1];
+      return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (position >= end) {
+        return -1;
+      }
+      int toRead = (int) Math.min(len, end - position);
+      int read = channel.read(ByteBuffer.wrap(b, off, toRead), position);
+      if (read == -1) {
+        return -1;
+      }
+      position += read;
+      return read;
+    }
+  }
+}
@@ -0,0 +1,169 @@
+package com.shimmermare.ecwidtest.ipaddrcounter;
+
+import java.util.Arrays;
+
+/**
+ * Bitmap with blocks from a shared {@link BlockPool}. Block ids are found through a small
+ * open-addressing map of populated block indexes, so an empty bitmap is a few dozen bytes instead
+ * of 4 MB block array of {@link ChunkedBitmap}. Blocks are returned to the pool when bitmap is
+ * released.
+ */
+final class PooledBitmap implements AddressBitmap {
+  private static final int EMPTY = -1;
+
+  private final BlockPool pool;
+  // Block index -> block id, linear probing
+  private int[] blockIndexes;
+  private int[] blockIds;
+  private int populatedBlocks;
+  private long cardinality;
+
+  PooledBitmap(BlockPool pool) {
+    this.pool = pool;
+    this.blockIndexes = new int[4];
+    this.blockIds = new int[4];
+    Arrays.fill(blockIndexes, EMPTY);
+  }
+
+  @Override
+  public boolean add(int address) {
+    int id = blockId(address >>> 12, true);
+    long[] page = pool.page(id);
+    int word = BlockPool.offset(id) + ((address & (BLOCK_SIZE - 1)) >>> 6);
+    long mask = 1L << address;
+    if ((page[word] & mask) != 0) {
+      return false;
+    }
+    page[word] |= mask;
+    cardinality++;
+    return true;
+  }
+
+  @Override
+  public boolean contains(int address) {
+    int id = blockId(address >>> 12, false);
+    if (id == EMPTY) {
+      return false;
+    }
+    int word = BlockPool.offset(id) + ((address & (BLOCK_SIZE - 1)) >>> 6);
+    return (pool.page(id)[word] & (1L << address)) != 0;
+  }
+
+  @Override
+  public long cardinality() {
+    return cardinality;
+  }
+
+  @Override
+  public boolean readBlock(int blockIndex, long[] words) {
+    int id = blockId(blockIndex, false);
+    if (id == EMPTY) {
+      return false;
+    }
+    System.arraycopy(pool.page(id), BlockPool.offset(id), words, 0, BLOCK_WORDS);
+    return true;
+  }
+
+  @Override
+  public long orBlock(int blockIndex, long[] words) {
+    int id = blockId(blockIndex, false);
+    long added = 0;
+    for (int i = 0; i < BLOCK_WORDS; i++) {
+      if (words[i] == 0) {
+        continue;
+      }
+      if (id == EMPTY) {
+        id = blockId(blockIndex, true);
+      }
+      long[] page = pool.page(id);
+      int word = BlockPool.offset(id) + i;
+      added += Long.bitCount(words[i] & ~page[word]);
+      page[word] |= words[i];
+    }
+    cardinality += added;
+    return added;
+  }
+
+  /** @return indexes of blocks with at least one address, in ascending order. */
+  int[] populatedBlockIndexes() {
+    int[] result = new int[populatedBlocks];
+    int count = 0;
+    for (int blockIndex : blockIndexes) {
+      if (blockIndex != EMPTY) {
+        result[count++] = blockIndex;
+      }
+    }
+    Arrays.sort(result);
+    return result;
+  }
+
+  @Override
+  public int populatedBlocks() {
+    return populatedBlocks;
+  }
+
+  /** Return all blocks to the pool. Bitmap is empty after that. */
+  void release() {
+    for (int i = 0; i < blockIndexes.length; i++) {
+      if (blockIndexes[i] != EMPTY) {
+        pool.release(blockIds[i]);
+      }
+    }
+    blockIndexes = new int[4];
+    blockIds = new int[4];
+    Arrays.fill(blockIndexes, EMPTY);
+    populatedBlocks = 0;
+    cardinality = 0;
+  }
+
+  /** @return block id or {@link #EMPTY} if there's no block and {@code create} is false. */
+  private int blockId(int blockIndex, boolean create) {
+    int mask = blockIndexes.length - 1;
+    int slot = mix(blockIndex) & mask;
+    while (true) {
+      int current = blockIndexes[slot];
+      if (current == blockIndex) {
+        return blockIds[slot];
+      }
+      if (current == EMPTY) {
+        break;
+      }
+      slot = (slot + 1) & mask;
+    }
+    if (!create) {
+      return EMPTY;
+    }
+    int id = pool.allocate();
+    blockIndexes[slot] = blockIndex;
+    blockIds[slot] = id;
+    // Keep load factor under 1/2
+    if (++populatedBlocks * 2 > blockIndexes.length) {
+      grow();
+    }
+    return id;
+  }
+
+  private void grow() {
+    int[] oldIndexes = blockIndexes;
+    int[] oldIds = blockIds;
+    blockIndexes = new int[oldIndexes.length * 2];
+    blockIds = new int[oldIds.length * 2];
+    Arrays.fill(blockIndexes, EMPTY);
+    int mask = blockIndexes.length - 1;
+    for (int i = 0; i < oldIndexes.length; i++) {
+      if (oldIndexes[i] != EMPTY) {
+        int slot = mix(oldIndexes[i]) & mask;
+        while (blockIndexes[slot] != EMPTY) {
+          slot = (slot + 1) & mask;
+        }
+        blockIndexes[slot] = oldIndexes[i];
+        blockIds[slot] = oldIds[i];
+      }
+    }
+  }
+
+  private static int mix(int blockIndex) {
+    int h = blockIndex * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+}
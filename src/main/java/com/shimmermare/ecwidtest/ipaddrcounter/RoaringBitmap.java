@@ -0,0 +1,555 @@
+package com.shimmermare.ecwidtest.ipaddrcounter;
+
+import java.util.Arrays;
+
+/**
+ * Compressed bitmap in the spirit of Roaring bitmaps. Memory scales with the real number of
+ * addresses instead of the number of touched blocks.
+ *
+ * <p>Address space is split by high 16 bits into containers of 65536 addresses, and every
+ * container picks the cheapest representation of its low 16 bits:
+ * <li>array: sorted {@code char[]}, 2 bytes per address. Used for up to {@link #ARRAY_MAX_SIZE}
+ *     addresses, e.g. scattered single hits from scanners.
+ * <li>bitmap: 1024 words, fixed 8 KB. Used when array would be larger.
+ * <li>run: sorted (start, length - 1) pairs, 4 bytes per run. Used for contiguous ranges, e.g. a
+ *     subnet that was fully scanned.
+ *
+ * <p>Array to bitmap conversion happens automatically on add. Runs are created by {@link
+ * #addRange(long, long)} and {@link #runOptimize()}, because finding runs on every add is too
+ * expensive.
+ */
+public final class RoaringBitmap implements AddressBitmap {
+  static final int ARRAY_MAX_SIZE = 4096;
+  private static final int CONTAINER_SIZE = 1 << 16;
+  private static final int CONTAINER_WORDS = CONTAINER_SIZE / Long.SIZE;
+  private static final int BITMAP_BYTES = CONTAINER_WORDS * Long.BYTES;
+  private static final int BLOCKS_PER_CONTAINER = CONTAINER_SIZE / BLOCK_SIZE;
+
+  private final Container[] containers;
+  private long cardinality;
+
+  public RoaringBitmap() {
+    this.containers = new Container[CONTAINER_SIZE];
+  }
+
+  @Override
+  public boolean add(int address) {
+    int key = address >>> 16;
+    Container container = containers[key];
+    if (container == null) {
+      containers[key] = container = new ArrayContainer();
+    }
+    int before = container.cardinality();
+    containers[key] = container = container.add((char) address);
+    if (container.cardinality() != before) {
+      cardinality++;
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Add all addresses in [from, to). Fully covered containers become a single run.
+   *
+   * @return number of addresses that weren't in the set before.
+   */
+  public long addRange(long from, long to) {
+    if (from < 0 || to > IPv4_RANGE || from > to) {
+      throw new IllegalArgumentException("Invalid range [" + from + ", " + to + ")");
+    }
+    long added = 0;
+    long start = from;
+    while (start < to) {
+      int key = (int) (start >>> 16);
+      long containerEnd = Math.min(to, ((long) key + 1) << 16);
+      int lo = (int) (start & 0xFFFF);
+      int hi = (int) ((containerEnd - 1) & 0xFFFF);
+
+      Container container = containers[key];
+      int before = container == null ? 0 : container.cardinality();
+      if (container == null || (lo == 0 && hi == CONTAINER_SIZE - 1)) {
+        container = RunContainer.ofRange(lo, hi);
+      } else {
+        container = container.addRange(lo, hi).optimize();
+      }
+      containers[key] = container;
+      added += container.cardinality() - before;
+      start = containerEnd;
+    }
+    cardinality += added;
+    return added;
+  }
+
+  @Override
+  public boolean contains(int address) {
+    Container container = containers[address >>> 16];
+    return container != null && container.contains((char) address);
+  }
+
+  @Override
+  public long cardinality() {
+    return cardinality;
+  }
+
+  /** Convert every container to its cheapest representation, including runs. */
+  public void runOptimize() {
+    for (int i = 0; i < containers.length; i++) {
+      if (containers[i] != null) {
+        containers[i] = containers[i].optimize();
+      }
+    }
+  }
+
+  /** @return approximate memory used by containers, without object headers. */
+  @Override
+  public long estimatedBytes() {
+    long bytes = (long) containers.length * Integer.BYTES;
+    for (Container container : containers) {
+      if (container != null) {
+        bytes += container.sizeInBytes();
+      }
+    }
+    return bytes;
+  }
+
+  @Override
+  public boolean readBlock(int blockIndex, long[] words) {
+    Container container = containers[blockIndex / BLOCKS_PER_CONTAINER];
+    if (container == null) {
+      return false;
+    }
+    Arrays.fill(words, 0, BLOCK_WORDS, 0);
+    return container.readWords((blockIndex % BLOCKS_PER_CONTAINER) * BLOCK_WORDS, words);
+  }
+
+  @Override
+  public long orBlock(int blockIndex, long[] words) {
+    int base = blockIndex * BLOCK_SIZE;
+    long added = 0;
+    for (int i = 0; i < BLOCK_WORDS; i++) {
+      long word = words[i];
+      while (word != 0) {
+        int bit = Long.numberOfTrailingZeros(word);
+        if (add(base + i * Long.SIZE + bit)) {
+          added++;
+        }
+        word &= word - 1;
+      }
+    }
+    return added;
+  }
+
+  /**
+   * Container of low 16 bits. Mutating methods return the container that should replace this one,
+   * which is either this or a converted copy.
+   */
+  private abstract static class Container {
+    abstract Container add(char value);
+
+    /** Add [lo, hi], both inclusive. */
+    abstract Container addRange(int lo, int hi);
+
+    abstract boolean contains(char value);
+
+    abstract int cardinality();
+
+    /** Copy 64 words starting from {@code firstWord} into words; @return true if any bit is set. */
+    abstract boolean readWords(int firstWord, long[] words);
+
+    abstract int runCount();
+
+    abstract int sizeInBytes();
+
+    abstract BitmapContainer toBitmap();
+
+    /** Pick the smallest representation. */
+    Container optimize() {
+      int cardinality = cardinality();
+      int arrayBytes =
+          cardinality <= ARRAY_MAX_SIZE ? cardinality * Character.BYTES : Integer.MAX_VALUE;
+      int runBytes = RunContainer.sizeInBytes(runCount());
+      if (runBytes < arrayBytes && runBytes < BITMAP_BYTES) {
+        return this instanceof RunContainer ? this : RunContainer.of(toBitmap());
+      }
+      if (arrayBytes < BITMAP_BYTES) {
+        return this instanceof ArrayContainer ? this : ArrayContainer.of(toBitmap());
+      }
+      return this instanceof BitmapContainer ? this : toBitmap();
+    }
+  }
+
+  private static final class ArrayContainer extends Container {
+    private char[] values;
+    private int size;
+
+    private ArrayContainer() {
+      this.values = new char[4];
+    }
+
+    private static ArrayContainer of(BitmapContainer bitmap) {
+      ArrayContainer array = new ArrayContainer();
+      array.values = new char[bitmap.cardinality];
+      long[] words = bitmap.words;
+      for (int i = 0; i < words.length; i++) {
+        long word = words[i];
+        while (word != 0) {
+          array.values[array.size++] = (char) (i * Long.SIZE + Long.numberOfTrailingZeros(word));
+          word &= word - 1;
+        }
+      }
+      return array;
+    }
+
+    @Override
+    Container add(char value) {
+      int index = Arrays.binarySearch(values, 0, size, value);
+      if (index >= 0) {
+        return this;
+      }
+      if (size == ARRAY_MAX_SIZE) {
+        return toBitmap().add(value);
+      }
+      index = -index - 1;
+      if (size == values.length) {
+        values = Arrays.copyOf(values, Math.min(ARRAY_MAX_SIZE, Math.max(4, size * 2)));
+      }
+      System.arraycopy(values, index, values, index + 1, size - index);
+      values[index] = value;
+      size++;
+      return this;
+    }
+
+    @Override
+    Container addRange(int lo, int hi) {
+      return toBitmap().addRange(lo, hi);
+    }
+
+    @Override
+    boolean contains(char value) {
+      return Arrays.binarySearch(values, 0, size, value) >= 0;
+    }
+
+    @Override
+    int cardinality() {
+      return size;
+    }
+
+    @Override
+    boolean readWords(int firstWord, long[] words) {
+      int first = firstWord * Long.SIZE;
+      int index = Arrays.binarySearch(values, 0, size, (char) first);
+      if (index < 0) {
+        index = -index - 1;
+      }
+      boolean any = false;
+      for (; index < size && values[index] < first + BLOCK_SIZE; index++) {
+        int bit = values[index] - first;
+        words[bit >>> 6] |= 1L << bit;
+        any = true;
+      }
+      return any;
+    }
+
+    @Override
+    int runCount() {
+      int runs = 0;
+      for (int i = 0; i < size; i++) {
+        if (i == 0 || values[i] != values[i - 1] + 1) {
+          runs++;
+        }
+      }
+      return runs;
+    }
+
+    @Override
+    int sizeInBytes() {
+      return values.length * Character.BYTES;
+    }
+
+    @Override
+    BitmapContainer toBitmap() {
+      BitmapContainer bitmap = new BitmapContainer();
+      for (int i = 0; i < size; i++) {
+        bitmap.words[values[i] >>> 6] |= 1L << values[i];
+      }
+      bitmap.cardinality = size;
+      return bitmap;
+    }
+  }
+
+  private static final class BitmapContainer extends Container {
+    private final long[] words;
+    private int cardinality;
+
+    private BitmapContainer() {
+      this.words = new long[CONTAINER_WORDS];
+    }
+
+    @Override
+    Container add(char value) {
+      long word = words[value >>> 6];
+      long mask = 1L << value;
+      if ((word & mask) == 0) {
+        words[value >>> 6] = word | mask;
+        cardinality++;
+      }
+      return this;
+    }
+
+    @Override
+    Container addRange(int lo, int hi) {
+      int firstWord = lo >>> 6;
+      int lastWord = hi >>> 6;
+      for (int i = firstWord; i <= lastWord; i++) {
+        cardinality -= Long.bitCount(words[i]);
+      }
+      setRange(words, lo, hi);
+      for (int i = firstWord; i <= lastWord; i++) {
+        cardinality += Long.bitCount(words[i]);
+      }
+      return this;
+    }
+
+    @Override
+    boolean contains(char value) {
+      return (words[value >>> 6] & (1L << value)) != 0;
+    }
+
+    @Override
+    int cardinality() {
+      return cardinality;
+    }
+
+    @Override
+    boolean readWords(int firstWord, long[] words) {
+      long any = 0;
+      for (int i = 0; i < BLOCK_WORDS; i++) {
+        words[i] = this.words[firstWord + i];
+        any |= words[i];
+      }
+      return any != 0;
+    }
+
+    @Override
+    int runCount() {
+      int runs = 0;
+      long previous = 0;
+      for (long word : words) {
+        // Run starts where bit is set and previous bit is not
+        runs += Long.bitCount(word & ~((word << 1) | (previous >>> 63)));
+        previous = word;
+      }
+      return runs;
+    }
+
+    @Override
+    int sizeInBytes() {
+      return BITMAP_BYTES;
+    }
+
+    @Override
+    BitmapContainer toBitmap() {
+      return this;
+    }
+  }
+
+  private static final class RunContainer extends Container {
+    // Pairs of (start, length - 1)
+    private char[] runs;
+    private int runCount;
+    private int cardinality;
+
+    private RunContainer(char[] runs, int runCount) {
+      this.runs = runs;
+      this.runCount = runCount;
+      for (int i = 0; i < runCount; i++) {
+        cardinality += runs[2 * i + 1] + 1;
+      }
+    }
+
+    private static RunContainer ofRange(int lo, int hi) {
+      return new RunContainer(new char[] {(char) lo, (char) (hi - lo)}, 1);
+    }
+
+    private static RunContainer of(BitmapContainer bitmap) {
+      char[] runs = new char[2 * bitmap.runCount()];
+      int runCount = 0;
+      int start = nextSetBit(bitmap.words, 0);
+      while (start != -1) {
+        int end = nextClearBit(bitmap.words, start);
+        runs[2 * runCount] = (char) start;
+        runs[2 * runCount + 1] = (char) (end - start - 1);
+        runCount++;
+        start = end < CONTAINER_SIZE ? nextSetBit(bitmap.words, end) : -1;
+      }
+      return new RunContainer(runs, runCount);
+    }
+
+    private static int sizeInBytes(int runCount) {
+      return runCount * 2 * Character.BYTES;
+    }
+
+    private int start(int run) {
+      return runs[2 * run];
+    }
+
+    private int end(int run) {
+      return runs[2 * run] + runs[2 * run + 1];
+    }
+
+    /** @return index of the last run that starts at or before value, or -1. */
+    private int findRun(int value) {
+      int low = 0;
+      int high = runCount - 1;
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        if (start(mid) <= value) {
+          low = mid + 1;
+        } else {
+          high = mid - 1;
+        }
+      }
+      return high;
+    }
+
+    @Override
+    Container add(char value) {
+      int run = findRun(value);
+      if (run >= 0 && value <= end(run)) {
+        return this;
+      }
+      boolean touchesNext = run + 1 < runCount && start(run + 1) == value + 1;
+      if (run >= 0 && end(run) + 1 == value && !touchesNext) {
+        // Fast path: extend run, happens a lot for ascending input
+        runs[2 * run + 1]++;
+        cardinality++;
+        return this;
+      }
+      return addRange(value, value);
+    }
+
+    @Override
+    Container addRange(int lo, int hi) {
+      // Runs that end right before lo or start right after hi are merged too
+      int first = findRun(lo);
+      if (first < 0 || end(first) + 1 < lo) {
+        first++;
+      }
+      int last = findRun(Math.min(hi + 1, CONTAINER_SIZE - 1));
+      int mergedStart = first <= last ? Math.min(lo, start(first)) : lo;
+      int mergedEnd = first <= last ? Math.max(hi, end(last)) : hi;
+
+      int mergedCardinality = 0;
+      for (int i = first; i <= last; i++) {
+        mergedCardinality += runs[2 * i + 1] + 1;
+      }
+      cardinality += (mergedEnd - mergedStart + 1) - mergedCardinality;
+
+      int removed = last - first + 1;
+      int newRunCount = runCount - removed + 1;
+      char[] newRuns = newRunCount * 2 <= runs.length ? runs : new char[newRunCount * 4];
+      // Shift tail runs to their new place, then write merged run over the gap
+      System.arraycopy(runs, 0, newRuns, 0, first * 2);
+      System.arraycopy(runs, (last + 1) * 2, newRuns, (first + 1) * 2, (runCount - last - 1) * 2);
+      newRuns[2 * first] = (char) mergedStart;
+      newRuns[2 * first + 1] = (char) (mergedEnd - mergedStart);
+      runs = newRuns;
+      runCount = newRunCount;
+
+      // Too fragmented to stay as runs
+      if (sizeInBytes(runCount) > BITMAP_BYTES) {
+        return toBitmap().optimize();
+      }
+      return this;
+    }
+
+    @Override
+    boolean contains(char value) {
+      int run = findRun(value);
+      return run >= 0 && value <= end(run);
+    }
+
+    @Override
+    int cardinality() {
+      return cardinality;
+    }
+
+    @Override
+    boolean readWords(int firstWord, long[] words) {
+      int first = firstWord * Long.SIZE;
+      int last = first + BLOCK_SIZE - 1;
+      int run = Math.max(0, findRun(first));
+      boolean any = false;
+      for (; run < runCount && start(run) <= last; run++) {
+        int lo = Math.max(first, start(run)) - first;
+        int hi = Math.min(last, end(run)) - first;
+        if (lo > hi) {
+          continue;
+        }
+        setRange(words, lo, hi);
+        any = true;
+      }
+      return any;
+    }
+
+    @Override
+    int runCount() {
+      return runCount;
+    }
+
+    @Override
+    int sizeInBytes() {
+      return runs.length * Character.BYTES;
+    }
+
+    @Override
+    BitmapContainer toBitmap() {
+      BitmapContainer bitmap = new BitmapContainer();
+      for (int i = 0; i < runCount; i++) {
+        setRange(bitmap.words, start(i), end(i));
+      }
+      bitmap.cardinality = cardinality;
+      return bitmap;
+    }
+  }
+
+  /** Set bits [lo, hi], both inclusive. */
+  private static void setRange(long[] words, int lo, int hi) {
+    int firstWord = lo >>> 6;
+    int lastWord = hi >>> 6;
+    for (int i = firstWord; i <= lastWord; i++) {
+      long mask = -1L;
+      if (i == firstWord) {
+        mask &= -1L << lo;
+      }
+      if (i == lastWord) {
+        mask &= -1L >>> (63 - (hi & 63));
+      }
+      words[i] |= mask;
+    }
+  }
+
+  private static int nextSetBit(long[] words, int from) {
+    int index = from >>> 6;
+    long word = words[index] & (-1L << from);
+    while (word == 0) {
+      if (++index == words.length) {
+        return -1;
+      }
+      word = words[index];
+    }
+    return index * Long.SIZE + Long.numberOfTrailingZeros(word);
+  }
+
+  private static int nextClearBit(long[] words, int from) {
+    int index = from >>> 6;
+    long word = ~words[index] & (-1L << from);
+    while (word == 0) {
+      if (++index == words.length) {
+        return words.length * Long.SIZE;
+      }
+      word = ~words[index];
+    }
+    return index * Long.SIZE + Long.numberOfTrailingZeros(word);
+  }
+}
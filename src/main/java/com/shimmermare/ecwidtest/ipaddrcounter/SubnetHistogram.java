@@ -0,0 +1,235 @@
+package com.shimmermare.ecwidtest.ipaddrcounter;
+
+import static com.shimmermare.ecwidtest.ipaddrcounter.AddressBitmap.BLOCK_COUNT;
+import static com.shimmermare.ecwidtest.ipaddrcounter.AddressBitmap.BLOCK_WORDS;
+
+import java.util.Arrays;
+
+/**
+ * Number of addresses in every non-empty subnet of the same prefix length, e.g. per /24.
+ *
+ * <p>Built straight from bitmap blocks with popcount, nothing is recounted from input. One block is
+ * a /20, so prefixes up to /20 take whole blocks and longer ones take groups of words, down to /26
+ * which is one word.
+ */
+public final class SubnetHistogram {
+  public static final int MAX_PREFIX_LENGTH = 26;
+  // Prefix length of one block
+  private static final int BLOCK_PREFIX_LENGTH = 20;
+
+  private final int prefixLength;
+  private final int[] subnets;
+  private final long[] counts;
+  private final int size;
+
+  private SubnetHistogram(int prefixLength, int[] subnets, long[] counts, int size) {
+    this.prefixLength = prefixLength;
+    this.subnets = subnets;
+    this.counts = counts;
+    this.size = size;
+  }
+
+  /**
+   * Count addresses of the bitmap per subnet.
+   *
+   * @param prefixLength from 0 to {@link #MAX_PREFIX_LENGTH}.
+   */
+  public static SubnetHistogram of(AddressBitmap bitmap, int prefixLength) {
+    Builder builder = new Builder(prefixLength);
+    long[] words = new long[BLOCK_WORDS];
+    for (int blockIndex = 0; blockIndex < BLOCK_COUNT; blockIndex++) {
+      if (bitmap.readBlock(blockIndex, words)) {
+        builder.addBlock(blockIndex, words);
+      }
+    }
+    return builder.build();
+  }
+
+  /** Same as {@link #of(AddressBitmap, int)} but only for known populated blocks. */
+  static SubnetHistogram of(AddressBitmap bitmap, int prefixLength, int[] sortedBlockIndexes) {
+    Builder builder = new Builder(prefixLength);
+    long[] words = new long[BLOCK_WORDS];
+    for (int blockIndex : sortedBlockIndexes) {
+      if (bitmap.readBlock(blockIndex, words)) {
+        builder.addBlock(blockIndex, words);
+      }
+    }
+    return builder.build();
+  }
+
+  public int prefixLength() {
+    return prefixLength;
+  }
+
+  /** @return number of non-empty subnets. */
+  public int size() {
+    return size;
+  }
+
+  /** @return network address of subnet i as unsigned 32-bit value. */
+  public int subnet(int i) {
+    checkIndex(i);
+    return subnets[i];
+  }
+
+  /** @return number of addresses in subnet i. */
+  public long count(int i) {
+    checkIndex(i);
+    return counts[i];
+  }
+
+  /**
+   * @return histogram of at most n subnets with the most addresses, largest first. Subnets of the
+   *     original histogram are in address order.
+   */
+  public SubnetHistogram top(int n) {
+    if (n < 0) {
+      throw new IllegalArgumentException("N can't be negative");
+    }
+    int resultSize = Math.min(n, size);
+    // Min-heap of indexes by count, so the smallest of the current top is replaced first
+    int[] heap = new int[resultSize];
+    int heapSize = 0;
+    for (int i = 0; i < size; i++) {
+      if (heapSize < resultSize) {
+        heap[heapSize++] = i;
+        siftUp(heap, heapSize - 1);
+      } else if (resultSize > 0 && counts[i] > counts[heap[0]]) {
+        heap[0] = i;
+        siftDown(heap, heapSize);
+      }
+    }
+    int[] topSubnets = new int[resultSize];
+    long[] topCounts = new long[resultSize];
+    for (int i = resultSize - 1; i >= 0; i--) {
+      int index = heap[0];
+      topSubnets[i] = subnets[index];
+      topCounts[i] = counts[index];
+      heap[0] = heap[--heapSize];
+      siftDown(heap, heapSize);
+    }
+    return new SubnetHistogram(prefixLength, topSubnets, topCounts, resultSize);
+  }
+
+  /** @return subnet i in CIDR notation, e.g. 10.1.2.0/24. */
+  public String format(int i) {
+    int subnet = subnet(i);
+    return (subnet >>> 24)
+        + "."
+        + ((subnet >>> 16) & 0xFF)
+        + "."
+        + ((subnet >>> 8) & 0xFF)
+        + "."
+        + (subnet & 0xFF)
+        + "/"
+        + prefixLength;
+  }
+
+  private void checkIndex(int i) {
+    if (i < 0 || i >= size) {
+      throw new IndexOutOfBoundsException("Index " + i + " out of " + size + " subnets");
+    }
+  }
+
+  private void siftUp(int[] heap, int i) {
+    while (i > 0) {
+      int parent = (i - 1) / 2;
+      if (less(heap[parent], heap[i])) {
+        break;
+      }
+      swap(heap, parent, i);
+      i = parent;
+    }
+  }
+
+  private void siftDown(int[] heap, int heapSize) {
+    int i = 0;
+    while (true) {
+      int smallest = i;
+      int left = 2 * i + 1;
+      int right = left + 1;
+      if (left < heapSize && less(heap[left], heap[smallest])) {
+        smallest = left;
+      }
+      if (right < heapSize && less(heap[right], heap[smallest])) {
+        smallest = right;
+      }
+      if (smallest == i) {
+        return;
+      }
+      swap(heap, i, smallest);
+      i = smallest;
+    }
+  }
+
+  /** Smaller count first, same counts ordered so the lower subnet wins the top. */
+  private boolean less(int a, int b) {
+    return counts[a] < counts[b] || (counts[a] == counts[b] && a > b);
+  }
+
+  private static void swap(int[] heap, int a, int b) {
+    int tmp = heap[a];
+    heap[a] = heap[b];
+    heap[b] = tmp;
+  }
+
+  private static final class Builder {
+    private final int prefixLength;
+    private int[] subnets = new int[16];
+    private long[] counts = new long[16];
+    private int size;
+
+    private Builder(int prefixLength) {
+      if (prefixLength < 0 || prefixLength > MAX_PREFIX_LENGTH) {
+        throw new IllegalArgumentException(
+            "Prefix length should be in [0, " + MAX_PREFIX_LENGTH + "]");
+      }
+      this.prefixLength = prefixLength;
+    }
+
+    /** Blocks should be added in ascending order, so subnets are too. */
+    private void addBlock(int blockIndex, long[] words) {
+      if (prefixLength <= BLOCK_PREFIX_LENGTH) {
+        long count = 0;
+        for (int i = 0; i < BLOCK_WORDS; i++) {
+          count += Long.bitCount(words[i]);
+        }
+        add(networkAddress(blockIndex << 12), count);
+        return;
+      }
+      int wordsPerSubnet = BLOCK_WORDS >>> (prefixLength - BLOCK_PREFIX_LENGTH);
+      for (int first = 0; first < BLOCK_WORDS; first += wordsPerSubnet) {
+        long count = 0;
+        for (int i = first; i < first + wordsPerSubnet; i++) {
+          count += Long.bitCount(words[i]);
+        }
+        add((blockIndex << 12) | (first << 6), count);
+      }
+    }
+
+    private int networkAddress(int address) {
+      return prefixLength == 0 ? 0 : address & (-1 << (32 - prefixLength));
+    }
+
+    private void add(int subnet, long count) {
+      if (count == 0) {
+        return;
+      }
+      if (size > 0 && subnets[size - 1] == subnet) {
+        counts[size - 1] += count;
+        return;
+      }
+      if (size == subnets.length) {
+        subnets = Arrays.copyOf(subnets, size * 2);
+        counts = Arrays.copyOf(counts, size * 2);
+      }
+      subnets[size] = subnet;
+      counts[size] = count;
+      size++;
+    }
+
+    private SubnetHistogram build() {
+      return new SubnetHistogram(prefixLength, subnets, counts, size);
+    }
+  }
+}
@@ -0,0 +1,349 @@
+package com.shimmermare.ecwidtest.ipaddrcounter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Push-style unique IP counting: addresses are fed as they come, and the running count is
+ * available at any moment without rescanning. Same accumulator can be reused across any number of
+ * inputs, e.g. when tailing logs or counting many files.
+ *
+ * <p>Only one thread can feed addresses. {@link #uniqueCount()} can be read from any thread: it's
+ * published after every call and every {@link #PUBLISH_INTERVAL} lines of bulk input. Bulk input
+ * is marked in batches of that size through {@link AddressBitmap#addAll(int[], int)}.
+ *
+ * <p>Lines are expected to be bare addresses unless another {@link FieldExtractor} is given, e.g.
+ * to count client addresses straight from access logs. Lines without a valid address stop
+ * counting, unless another {@link InvalidLinePolicy} is given.
+ */
+public final class UniqueIPAccumulator {
+  static final int PUBLISH_INTERVAL = 4096;
+
+  private final AddressBitmap bitmap;
+  private final FieldExtractor extractor;
+  private final InvalidLinePolicy invalidLinePolicy;
+  private final CountingMetrics metrics;
+  private volatile long uniqueCount;
+
+  // Copy of bulk input, bitmap may reorder addresses it's given
+  private int[] chunk;
+
+  public UniqueIPAccumulator() {
+    this(new AdaptiveBitmap());
+  }
+
+  public UniqueIPAccumulator(AddressBitmap bitmap) {
+    this(bitmap, FieldExtractor.wholeLine());
+  }
+
+  public UniqueIPAccumulator(AddressBitmap bitmap, FieldExtractor extractor) {
+    this(bitmap, extractor, InvalidLinePolicy.failFast());
+  }
+
+  public UniqueIPAccumulator(
+      AddressBitmap bitmap, FieldExtractor extractor, InvalidLinePolicy invalidLinePolicy) {
+    this.bitmap = bitmap;
+    this.extractor = extractor;
+    this.invalidLinePolicy = invalidLinePolicy;
+    this.metrics = new CountingMetrics(this);
+    this.uniqueCount = bitmap.cardinality();
+  }
+
+  /** @return true if address wasn't seen before. */
+  public boolean add(int address) {
+    boolean added = bitmap.add(address);
+    if (added) {
+      publish();
+    }
+    return added;
+  }
+
+  /**
+   * Add addresses in chunks of {@link #PUBLISH_INTERVAL}, array itself isn't modified.
+   *
+   * @return number of addresses that weren't seen before.
+   */
+  public long addAll(int[] addresses, int offset, int length) {
+    int[] chunk = chunk();
+    long added = 0;
+    for (int i = offset; i < offset + length; i += chunk.length) {
+      int n = Math.min(chunk.length, offset + length - i);
+      System.arraycopy(addresses, i, chunk, 0, n);
+      added += bitmap.addAll(chunk, n);
+      publish();
+    }
+    return added;
+  }
+
+  /**
+   * Add all remaining ints of the buffer, in buffer byte order. Buffer position is moved to limit.
+   *
+   * @return number of addresses that weren't seen before.
+   */
+  public long addAll(ByteBuffer addresses) {
+    int[] chunk = chunk();
+    long added = 0;
+    while (addresses.remaining() >= Integer.BYTES) {
+      int n = Math.min(chunk.length, addresses.remaining() / Integer.BYTES);
+      for (int i = 0; i < n; i++) {
+        chunk[i] = addresses.getInt();
+      }
+      added += bitmap.addAll(chunk, n);
+      publish();
+    }
+    addresses.position(addresses.limit());
+    return added;
+  }
+
+  /**
+   * Extract address from one line of ASCII bytes [from, to) and add it.
+   *
+   * @return true if address wasn't seen before, false if it was or the line was rejected.
+   * @throws IllegalArgumentException if the line has no valid IPv4 and policy is fail-fast.
+   * @throws UncheckedIOException if policy failed to write rejected line.
+   */
+  public boolean addLine(byte[] bytes, int from, int to) {
+    metrics.start();
+    metrics.record(1, to - from);
+    long address = extractor.extract(bytes, from, to);
+    if (address == IPv4Parser.INVALID) {
+      metrics.recordInvalid();
+      if (invalidLinePolicy == InvalidLinePolicy.failFast()) {
+        throw invalidLine("Line", bytes, from, to);
+      }
+      try {
+        invalidLinePolicy.reject(-1, bytes, from, to);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      return false;
+    }
+    return add((int) address);
+  }
+
+  /**
+   * Read lines from the stream until EOF. Stream isn't closed.
+   *
+   * @return number of addresses that weren't seen before.
+   * @throws IllegalArgumentException if some line isn't a valid IPv4 and policy is fail-fast.
+   *     Lines before it are counted.
+   */
+  public long addLines(InputStream in) throws IOException {
+    byte[] buffer = LineReader.BUFFERS.borrow();
+    try {
+      return addLines(new LineReader(in, buffer));
+    } finally {
+      LineReader.BUFFERS.release(buffer);
+    }
+  }
+
+  private long addLines(LineReader reader) throws IOException {
+    long before = bitmap.cardinality();
+    metrics.start();
+    Batch batch = new Batch();
+    while (reader.next()) {
+      byte[] bytes = reader.buffer();
+      long address = extractor.extract(bytes, reader.lineStart(), reader.lineEnd());
+      if (address != IPv4Parser.INVALID) {
+        batch.add((int) address, reader.consumed());
+        continue;
+      }
+      if (invalidLinePolicy == InvalidLinePolicy.failFast()) {
+        failFast(batch, reader.lineOffset(), reader.consumed());
+        throw invalidLine("Line " + batch.lines, bytes, reader.lineStart(), reader.lineEnd());
+      }
+      metrics.recordInvalid();
+      try {
+        invalidLinePolicy.reject(batch.lines, bytes, reader.lineStart(), reader.lineEnd());
+      } catch (IOException | RuntimeException e) {
+        stop(batch, reader.lineOffset(), reader.consumed());
+        throw e;
+      }
+      batch.skip(reader.consumed());
+    }
+    batch.flush(reader.consumed());
+    metrics.report(true);
+    return bitmap.cardinality() - before;
+  }
+
+  /** Same as {@link #addLines(Path, long)} with windows as large as possible. */
+  public long addLines(Path file) throws IOException {
+    return addLines(file, MappedLineReader.MAX_WINDOW_SIZE);
+  }
+
+  /**
+   * Read lines from memory-mapped file. Gzip files are recognized by their magic bytes and are
+   * read through {@link GzipPipelineInputStream} instead, so decompression runs on other threads.
+   * With a field extractor other than whole line, file is read as a stream.
+   *
+   * @param mappingWindowSize max size of one memory-mapped region, up to 2 GB.
+   * @return number of addresses that weren't seen before.
+   * @throws IllegalArgumentException if some line isn't a valid IPv4 and policy is fail-fast.
+   *     Lines before it are counted.
+   */
+  public long addLines(Path file, long mappingWindowSize) throws IOException {
+    if (mappingWindowSize < 1 || mappingWindowSize > MappedLineReader.MAX_WINDOW_SIZE) {
+      throw new IllegalArgumentException(
+          "Mapping window size should be in [1, " + MappedLineReader.MAX_WINDOW_SIZE + "]");
+    }
+    if (GzipPipelineInputStream.isGzip(file)) {
+      try (InputStream in = GzipPipelineInputStream.open(file)) {
+        return addLines(in);
+      }
+    }
+    if (extractor != FieldExtractor.wholeLine()) {
+      try (InputStream in = Files.newInputStream(file)) {
+        return addLines(in);
+      }
+    }
+    long before = bitmap.cardinality();
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      MappedLineReader reader = new MappedLineReader(channel, mappingWindowSize);
+      metrics.start();
+      Batch batch = new Batch();
+      byte[] rejected = new byte[0];
+      while (reader.next()) {
+        ByteBuffer buffer = reader.buffer();
+        long address = IPv4Parser.parse(buffer, reader.lineStart(), reader.lineEnd());
+        if (address != IPv4Parser.INVALID) {
+          batch.add((int) address, reader.consumed());
+          continue;
+        }
+        if (invalidLinePolicy == InvalidLinePolicy.failFast()) {
+          failFast(batch, reader.lineOffset(), reader.consumed());
+          throw invalidLine(
+              batch.lines, IPv4Parser.describeError(buffer, reader.lineStart(), reader.lineEnd()));
+        }
+        metrics.recordInvalid();
+        if (invalidLinePolicy != InvalidLinePolicy.skip()) {
+          // Mapped bytes aren't on heap, copy the line for the policy
+          int length = reader.lineEnd() - reader.lineStart();
+          if (rejected.length < length) {
+            rejected = new byte[Math.max(length, rejected.length * 2)];
+          }
+          buffer.duplicate().position(reader.lineStart()).get(rejected, 0, length);
+          try {
+            invalidLinePolicy.reject(batch.lines, rejected, 0, length);
+          } catch (IOException | RuntimeException e) {
+            stop(batch, reader.lineOffset(), reader.consumed());
+            throw e;
+          }
+        }
+        batch.skip(reader.consumed());
+      }
+      batch.flush(reader.consumed());
+      metrics.report(true);
+    }
+    return bitmap.cardinality() - before;
+  }
+
+  /** @return number of unique addresses seen so far. */
+  public long uniqueCount() {
+    return uniqueCount;
+  }
+
+  public AddressBitmap bitmap() {
+    return bitmap;
+  }
+
+  /** @return live metrics of line input, shared by all calls. */
+  public CountingMetrics metrics() {
+    return metrics;
+  }
+
+  /** @return extractor of addresses from lines. */
+  public FieldExtractor extractor() {
+    return extractor;
+  }
+
+  public InvalidLinePolicy invalidLinePolicy() {
+    return invalidLinePolicy;
+  }
+
+  private int[] chunk() {
+    if (chunk == null) {
+      chunk = new int[PUBLISH_INTERVAL];
+    }
+    return chunk;
+  }
+
+  private void publish() {
+    uniqueCount = bitmap.cardinality();
+  }
+
+  /** Count lines before the invalid one, then the invalid one itself. */
+  private void failFast(Batch batch, long lineOffset, long consumed) {
+    metrics.recordInvalid();
+    stop(batch, lineOffset, consumed);
+  }
+
+  /**
+   * Count lines before the one that stopped counting and the line itself, which is already counted
+   * as invalid, so that nothing read before it is lost.
+   */
+  private void stop(Batch batch, long lineOffset, long consumed) {
+    batch.flush(lineOffset);
+    metrics.record(1, consumed - lineOffset);
+    metrics.report(true);
+  }
+
+  /**
+   * Addresses of bulk input, marked at once when full, which lets bitmap sort them for locality.
+   * Also tracks lines and bytes of input that aren't in metrics yet.
+   */
+  private final class Batch {
+    private final int[] addresses = new int[PUBLISH_INTERVAL];
+    private int size;
+    // Lines of the current input, valid or not
+    private long lines;
+    private long recordedLines;
+    private long recordedBytes;
+
+    /** @param consumed input offset after the line. */
+    void add(int address, long consumed) {
+      addresses[size++] = address;
+      lines++;
+      if (size == PUBLISH_INTERVAL) {
+        flush(consumed);
+      }
+    }
+
+    /** Count the line without address, flushing every interval of lines like for valid ones. */
+    void skip(long consumed) {
+      lines++;
+      if (lines - recordedLines >= PUBLISH_INTERVAL) {
+        flush(consumed);
+      }
+    }
+
+    void flush(long consumed) {
+      bitmap.addAll(addresses, size);
+      size = 0;
+      publish();
+      metrics.record(lines - recordedLines, consumed - recordedBytes);
+      recordedLines = lines;
+      recordedBytes = consumed;
+      metrics.report(false);
+    }
+  }
+
+  private static IllegalArgumentException invalidLine(long line, String reason) {
+    return new IllegalArgumentException(
+        "Line " + line + " is not a valid IPv4", new IllegalArgumentException(reason));
+  }
+
+  private IllegalArgumentException invalidLine(String line, byte[] bytes, int from, int to) {
+    if (extractor == FieldExtractor.wholeLine()) {
+      return new IllegalArgumentException(
+          line + " is not a valid IPv4",
+          new IllegalArgumentException(IPv4Parser.describeError(bytes, from, to)));
+    }
+    return new IllegalArgumentException(line + " has no valid IPv4 in " + extractor);
+  }
+}
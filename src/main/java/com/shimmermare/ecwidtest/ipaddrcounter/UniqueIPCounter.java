@@ -3,9 +3,10 @@ package com.shimmermare.ecwidtest.ipaddrcounter;
 import java.io.IOException;
 
 /**
- * Count unique IPv4 addresses from input stream where each address is on it's own line.
+ * Count unique IP addresses from input where each address is on it's own line.
  *
  * @see ChunkedUniqueIPCounter
+ * @see HyperLogLogUniqueIPCounter for approximate count
  */
 public interface UniqueIPCounter {
   long count() throws IOException;
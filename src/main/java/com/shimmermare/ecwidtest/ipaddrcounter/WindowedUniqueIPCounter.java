@@ -0,0 +1,136 @@
+package com.shimmermare.ecwidtest.ipaddrcounter;
+
+import static com.shimmermare.ecwidtest.ipaddrcounter.AddressBitmap.BLOCK_WORDS;
+
+import java.util.Arrays;
+
+/**
+ * Unique IPs in the last N time units, e.g. last 5 minutes or last day.
+ *
+ * <p>Window is a ring of {@code bucketCount} buckets, each one is a {@link ChunkedBitmap} for
+ * {@code bucketMillis} of time. Window slides by whole buckets: when time moves forward, oldest
+ * buckets expire and are cleared for reuse, so their blocks are never reallocated and memory stays
+ * bounded by the busiest window. Keep in mind that every bucket has its own block index of 4 MB,
+ * so thousands of tiny buckets aren't a good idea.
+ *
+ * <p>Union of active buckets is kept in a separate bitmap and updated on every add, so count query
+ * is O(1). When buckets expire, union is rebuilt from remaining buckets, but only from their
+ * populated blocks, which happens once per bucket duration at most.
+ *
+ * <p>Not thread-safe.
+ */
+public final class WindowedUniqueIPCounter {
+  private final long bucketMillis;
+  private final int bucketCount;
+
+  private final ChunkedBitmap[] buckets;
+  // Epoch is timestamp / bucketMillis; bucket for epoch e is e % bucketCount
+  private final long[] bucketEpochs;
+  // Populated block indexes of every bucket, to avoid scanning all blocks on rebuild
+  private final int[][] bucketBlocks;
+  private final int[] bucketBlockCounts;
+
+  private final ChunkedBitmap union;
+  private long currentEpoch;
+
+  public WindowedUniqueIPCounter(long bucketMillis, int bucketCount) {
+    if (bucketMillis < 1 || bucketCount < 1) {
+      throw new IllegalArgumentException("Bucket duration and count should be positive");
+    }
+    this.bucketMillis = bucketMillis;
+    this.bucketCount = bucketCount;
+    this.buckets = new ChunkedBitmap[bucketCount];
+    this.bucketEpochs = new long[bucketCount];
+    this.bucketBlocks = new int[bucketCount][];
+    this.bucketBlockCounts = new int[bucketCount];
+    for (int i = 0; i < bucketCount; i++) {
+      buckets[i] = new ChunkedBitmap();
+      bucketEpochs[i] = Long.MIN_VALUE;
+      bucketBlocks[i] = new int[16];
+    }
+    this.union = new ChunkedBitmap();
+    this.currentEpoch = Long.MIN_VALUE;
+  }
+
+  /** @return window duration, bucket duration * bucket count. */
+  public long windowMillis() {
+    return bucketMillis * bucketCount;
+  }
+
+  /**
+   * Add address seen at the timestamp. Late addresses are added to their own bucket if it's still
+   * in the window, and ignored otherwise.
+   *
+   * @return true if address wasn't in the window before.
+   */
+  public boolean add(int address, long timestampMillis) {
+    long epoch = Math.floorDiv(timestampMillis, bucketMillis);
+    advance(epoch);
+    if (epoch <= currentEpoch - bucketCount) {
+      return false;
+    }
+
+    int slot = slot(epoch);
+    ChunkedBitmap bucket = buckets[slot];
+    int populatedBefore = bucket.populatedBlocks();
+    if (bucket.add(address) && bucket.populatedBlocks() != populatedBefore) {
+      addBucketBlock(slot, address >>> 12);
+    }
+    return union.add(address);
+  }
+
+  /** @return number of unique addresses in the window that ends at the timestamp. */
+  public long count(long nowMillis) {
+    advance(Math.floorDiv(nowMillis, bucketMillis));
+    return union.cardinality();
+  }
+
+  /** Move window so it ends at the epoch, expiring buckets that fall out of it. */
+  private void advance(long epoch) {
+    if (epoch <= currentEpoch) {
+      return;
+    }
+    boolean expired = false;
+    for (int i = 0; i < bucketCount; i++) {
+      if (bucketEpochs[i] != Long.MIN_VALUE && bucketEpochs[i] <= epoch - bucketCount) {
+        buckets[i].clear();
+        bucketEpochs[i] = Long.MIN_VALUE;
+        bucketBlockCounts[i] = 0;
+        expired = true;
+      }
+    }
+    currentEpoch = epoch;
+    if (expired) {
+      rebuildUnion();
+    }
+  }
+
+  private int slot(long epoch) {
+    int slot = Math.floorMod(epoch, bucketCount);
+    bucketEpochs[slot] = epoch;
+    return slot;
+  }
+
+  private void addBucketBlock(int slot, int blockIndex) {
+    int[] blocks = bucketBlocks[slot];
+    int count = bucketBlockCounts[slot];
+    if (count == blocks.length) {
+      bucketBlocks[slot] = blocks = Arrays.copyOf(blocks, count * 2);
+    }
+    blocks[count] = blockIndex;
+    bucketBlockCounts[slot] = count + 1;
+  }
+
+  private void rebuildUnion() {
+    union.clear();
+    long[] words = new long[BLOCK_WORDS];
+    for (int slot = 0; slot < bucketCount; slot++) {
+      int[] blocks = bucketBlocks[slot];
+      for (int i = 0; i < bucketBlockCounts[slot]; i++) {
+        if (buckets[slot].readBlock(blocks[i], words)) {
+          union.orBlock(blocks[i], words);
+        }
+      }
+    }
+  }
+}
@@ -1,31 +1,106 @@
 package com.shimmermare.ecwidtest.threadlocal;
 
-import java.util.Collections;
-import java.util.Map;
-import java.util.WeakHashMap;
+import java.lang.ref.Cleaner;
+import java.util.Objects;
+import java.util.function.Supplier;
 
 /**
  * Thread Local variable storage.
  *
- * <p>Optimization concern: thread local map is externally synchronized, that means it's fully
- * blocked. Throughput will be less than of ConcurrentHashMap.
+ * <p>Every local has a small integer id, and every thread has an array of values indexed by these
+ * ids, so a lookup is an array load without hashing or locking once the array of the current
+ * thread is found. {@link SlotThread} holds its array in a field; arrays of other threads are
+ * found in a lock-free table keyed by thread, see {@link WeakThreadTable}.
+ *
+ * <p>Nothing here prevents GC: arrays of finished threads are dropped with their threads, and when
+ * a local is collected, its id is released for reuse and its values are cleared in all threads.
+ * This happens on a cleaner thread shortly after GC, so pools with many short-lived locals don't
+ * leak.
+ *
+ * <p>It stays cheap with millions of short-lived threads, e.g. virtual threads: a thread that only
+ * reads gets nothing allocated, first write allocates one small array and one table entry, and
+ * threads starting at once insert their entries into different segments of the table. Values that
+ * are safe to share between threads are better kept in a {@link StripedLocal}, which holds a
+ * bounded number of them regardless of thread count.
  */
 public class CustomThreadLocal<T> {
-  private Map<Thread, T> locals;
+  private static final Cleaner CLEANER = Cleaner.create();
+
+  private final int id;
+  // Marks values of this local, id may have belonged to another local before
+  private final Object token = new Object();
 
   public CustomThreadLocal() {
-    this.locals = Collections.synchronizedMap(new WeakHashMap<>());
+    this.id = ThreadSlots.allocateId();
+    // Release action shouldn't refer to the local, or it will never be collected
+    int id = this.id;
+    Object token = this.token;
+    CLEANER.register(this, () -> ThreadSlots.releaseId(id, token));
   }
 
+  /**
+   * Local that creates the value of a thread with supplier on the first {@link #get()}, or the
+   * first after {@link #remove()}. Supplier is called on the thread itself, so there's no race of
+   * several values for one thread.
+   */
+  public static <S> CustomThreadLocal<S> withInitial(Supplier<? extends S> supplier) {
+    Objects.requireNonNull(supplier);
+    return new CustomThreadLocal<>() {
+      @Override
+      protected S initialValue() {
+        return supplier.get();
+      }
+    };
+  }
+
+  /**
+   * Value of a thread that hasn't set one, null by default. Null initial value isn't stored, so
+   * that threads that only read don't take memory, which also means it's asked for again next time.
+   */
+  protected T initialValue() {
+    return null;
+  }
+
+  @SuppressWarnings("unchecked")
   public T get() {
-    return locals.get(Thread.currentThread());
+    if (ThreadSlots.COUNT_LOOKUPS) {
+      ThreadSlots.LOOKUPS.increment();
+    }
+    ThreadSlots slots = ThreadSlots.find();
+    if (slots != null) {
+      Object[] values = slots.values;
+      int i = id << 1;
+      if (i < values.length && values[i] == token) {
+        return (T) values[i + 1];
+      }
+    }
+    if (ThreadSlots.COUNT_LOOKUPS) {
+      ThreadSlots.MISSES.increment();
+    }
+    T value = initialValue();
+    if (value != null) {
+      set(value);
+    }
+    return value;
   }
 
   public void set(T local) {
-    locals.put(Thread.currentThread(), local);
+    ThreadSlots.current().set(id, token, local);
+    ThreadSlots.expungeDeadThreads();
   }
 
   public void remove() {
-    locals.remove(Thread.currentThread());
+    ThreadSlots slots = ThreadSlots.find();
+    if (slots != null) {
+      slots.remove(id);
+    }
+  }
+
+  int id() {
+    return id;
+  }
+
+  Object token() {
+    return token;
   }
 }
@@ -0,0 +1,8 @@
+package com.shimmermare.ecwidtest.threadlocal;
+
+/** Gets leaks found by {@link ThreadLocalMetrics#startLeakDetection(LeakListener, long)}. */
+@FunctionalInterface
+public interface LeakListener {
+  /** Called on the detector thread, once per leaking thread. */
+  void onLeak(ThreadLeak leak);
+}
@@ -0,0 +1,40 @@
+package com.shimmermare.ecwidtest.threadlocal;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread that carries its {@link CustomThreadLocal} values in a field, so they are found without
+ * any lookup. Other threads work too, but their values are found through a table keyed by thread.
+ * Use {@link #factory(String)} to get such threads in executors.
+ */
+public class SlotThread extends Thread {
+  // Created on first use by the thread itself
+  ThreadSlots slots;
+
+  public SlotThread(Runnable target) {
+    super(target);
+  }
+
+  public SlotThread(Runnable target, String name) {
+    super(target, name);
+  }
+
+  public SlotThread(ThreadGroup group, Runnable target, String name, long stackSize) {
+    super(group, target, name, stackSize);
+  }
+
+  /**
+   * Same as {@link java.util.concurrent.Executors#defaultThreadFactory()}, but makes slot threads.
+   * Threads are named {@code <prefix>-<number>}.
+   */
+  public static ThreadFactory factory(String namePrefix) {
+    AtomicInteger threadNumber = new AtomicInteger(1);
+    return target -> {
+      SlotThread thread = new SlotThread(target, namePrefix + "-" + threadNumber.getAndIncrement());
+      thread.setDaemon(false);
+      thread.setPriority(NORM_PRIORITY);
+      return thread;
+    };
+  }
+}
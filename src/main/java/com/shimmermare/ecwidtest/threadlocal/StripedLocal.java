@@ -0,0 +1,56 @@
+package com.shimmermare.ecwidtest.threadlocal;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+
+/**
+ * Lazily created values shared by stripes of threads, for things that are expensive to create
+ * and safe to use from several threads at once, but suffer when all threads use one instance:
+ * counters, buffer pools, random generators with internal CAS and so on.
+ *
+ * <p>This is what per-carrier caching gives for virtual threads, without access to carriers:
+ * thread picks a stripe by its id, and there are a few stripes per core, so memory is bounded by
+ * the number of cores and not by the number of threads, while threads running at the same moment
+ * rarely share a value.
+ *
+ * <p>Values are created with the supplier on first use of every stripe. If several threads race
+ * for an empty stripe, one value wins and others are dropped, so the supplier should be cheap to
+ * call more than once.
+ */
+public final class StripedLocal<T> {
+  private final Supplier<? extends T> supplier;
+  private final AtomicReferenceArray<T> values;
+
+  /** With stripes count of 4 per available processor. */
+  public StripedLocal(Supplier<? extends T> supplier) {
+    this(supplier, Runtime.getRuntime().availableProcessors() * 4);
+  }
+
+  /** @param stripes rounded up to a power of two. */
+  public StripedLocal(Supplier<? extends T> supplier, int stripes) {
+    if (stripes < 1 || stripes > 1 << 16) {
+      throw new IllegalArgumentException("Stripe count should be in [1, 65536]");
+    }
+    this.supplier = Objects.requireNonNull(supplier);
+    this.values = new AtomicReferenceArray<>(Integer.highestOneBit(stripes * 2 - 1));
+  }
+
+  public int stripes() {
+    return values.length();
+  }
+
+  /** @return value of the stripe of the current thread. */
+  public T get() {
+    int stripe = WeakThreadTable.hash(Thread.currentThread()) & (values.length() - 1);
+    T value = values.getAcquire(stripe);
+    if (value == null) {
+      T created = Objects.requireNonNull(supplier.get(), "Supplier returned null");
+      value = values.compareAndExchange(stripe, null, created);
+      if (value == null) {
+        value = created;
+      }
+    }
+    return value;
+  }
+}
@@ -0,0 +1,35 @@
+package com.shimmermare.ecwidtest.threadlocal;
+
+/**
+ * Thread that has terminated but still holds {@link CustomThreadLocal} values, because something
+ * else keeps the thread object reachable. Values live as long as the thread object does.
+ */
+public final class ThreadLeak {
+  private final long threadId;
+  private final String threadName;
+  private final int values;
+
+  ThreadLeak(long threadId, String threadName, int values) {
+    this.threadId = threadId;
+    this.threadName = threadName;
+    this.values = values;
+  }
+
+  public long threadId() {
+    return threadId;
+  }
+
+  public String threadName() {
+    return threadName;
+  }
+
+  /** @return number of non-null values of all locals held for the thread. */
+  public int values() {
+    return values;
+  }
+
+  @Override
+  public String toString() {
+    return "Terminated thread " + threadName + " (" + threadId + ") holds " + values + " values";
+  }
+}
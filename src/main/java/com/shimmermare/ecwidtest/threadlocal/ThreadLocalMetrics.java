@@ -0,0 +1,207 @@
+package com.shimmermare.ecwidtest.threadlocal;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Metrics of all {@link CustomThreadLocal}s together, since they share per-thread storage: how
+ * many threads have values, how often threads come and go, how many locals are alive, and whether
+ * dead threads keep values.
+ *
+ * <p>Counters are {@link java.util.concurrent.atomic.LongAdder}s updated on slow paths only: first
+ * value of a thread, removal of a dead thread, creation and collection of a local. Lookups and
+ * misses are on the fast path and are counted only if system property {@value
+ * #COUNT_LOOKUPS_PROPERTY} is true at startup, otherwise JIT removes the counting completely.
+ *
+ * <p>Leaks are threads that have terminated, but whose thread objects are still reachable, e.g.
+ * from a list of workers, so their values can't be collected. They can be looked for once with
+ * {@link #findLeaks()} or periodically with {@link #startLeakDetection(LeakListener, long)}. Both
+ * scan storage of all threads, which doesn't block anything but takes time proportional to the
+ * number of threads.
+ */
+public final class ThreadLocalMetrics implements ThreadLocalMetricsMXBean {
+  public static final String COUNT_LOOKUPS_PROPERTY =
+      "com.shimmermare.ecwidtest.threadlocal.countLookups";
+  public static final String MBEAN_NAME = "com.shimmermare.ecwidtest.threadlocal:type=Metrics";
+
+  private static final ThreadLocalMetrics INSTANCE = new ThreadLocalMetrics();
+
+  // Guarded by this
+  private Thread leakDetector;
+
+  private ThreadLocalMetrics() {}
+
+  public static ThreadLocalMetrics instance() {
+    return INSTANCE;
+  }
+
+  /** @return threads with storage, including dead ones that aren't expunged yet. */
+  @Override
+  public long getThreads() {
+    return ThreadSlots.REGISTRY.size();
+  }
+
+  /** @return threads that got storage, every one of them on its first value. */
+  @Override
+  public long getInsertions() {
+    return ThreadSlots.REGISTRY.insertions();
+  }
+
+  /** @return insertions that waited for another one, high numbers mean too few segments. */
+  @Override
+  public long getContendedInsertions() {
+    return ThreadSlots.REGISTRY.contendedInsertions();
+  }
+
+  /** @return dead threads whose storage was dropped. */
+  @Override
+  public long getExpungedThreads() {
+    return ThreadSlots.REGISTRY.expungedEntries();
+  }
+
+  /** @return locals created and not collected yet. */
+  @Override
+  public long getLiveLocals() {
+    return ThreadSlots.CREATED_LOCALS.sum() - ThreadSlots.RELEASED_LOCALS.sum();
+  }
+
+  /** @return locals collected, whose values were cleared and ids reused. */
+  @Override
+  public long getReleasedLocals() {
+    return ThreadSlots.RELEASED_LOCALS.sum();
+  }
+
+  /** @return calls of {@link CustomThreadLocal#get()}, -1 if not counted. */
+  @Override
+  public long getLookups() {
+    return ThreadSlots.COUNT_LOOKUPS ? ThreadSlots.LOOKUPS.sum() : -1;
+  }
+
+  /** @return calls of {@link CustomThreadLocal#get()} that found no value, -1 if not counted. */
+  @Override
+  public long getMisses() {
+    return ThreadSlots.COUNT_LOOKUPS ? ThreadSlots.MISSES.sum() : -1;
+  }
+
+  /** Scans all threads, see {@link #findLeaks()}. */
+  @Override
+  public int getTerminatedThreadsWithValues() {
+    return findLeaks().size();
+  }
+
+  /** @return number of threads that have a value of the local. Scans all threads. */
+  public long entries(CustomThreadLocal<?> local) {
+    long[] entries = new long[1];
+    ThreadSlots.REGISTRY.forEach(
+        slots -> {
+          if (slots.contains(local.id(), local.token())) {
+            entries[0]++;
+          }
+        });
+    return entries[0];
+  }
+
+  /** @return terminated threads that hold values. Scans all threads. */
+  public List<ThreadLeak> findLeaks() {
+    List<ThreadLeak> leaks = new ArrayList<>();
+    ThreadSlots.REGISTRY.forEach(
+        (thread, slots) -> {
+          if (thread != null && thread.getState() == Thread.State.TERMINATED) {
+            int values = slots.valueCount();
+            if (values > 0) {
+              leaks.add(new ThreadLeak(thread.getId(), thread.getName(), values));
+            }
+          }
+        });
+    return leaks;
+  }
+
+  /**
+   * Look for leaks on a daemon thread every interval and report every leaking thread once. Replaces
+   * detection started before. Exceptions thrown by listener don't stop detection.
+   */
+  public synchronized void startLeakDetection(LeakListener listener, long intervalMillis) {
+    if (intervalMillis < 1) {
+      throw new IllegalArgumentException("Interval should be positive");
+    }
+    stopLeakDetection();
+    Thread thread =
+        new Thread(() -> detectLeaks(listener, intervalMillis), "custom-thread-local-leaks");
+    thread.setDaemon(true);
+    leakDetector = thread;
+    thread.start();
+  }
+
+  public synchronized void stopLeakDetection() {
+    if (leakDetector != null) {
+      leakDetector.interrupt();
+      leakDetector = null;
+    }
+  }
+
+  private static void detectLeaks(LeakListener listener, long intervalMillis) {
+    // Ids of threads reported before, kept while they leak
+    Set<Long> reported = new HashSet<>();
+    try {
+      while (!Thread.currentThread().isInterrupted()) {
+        Set<Long> leaking = new HashSet<>();
+        for (ThreadLeak leak : INSTANCE.findLeaks()) {
+          leaking.add(leak.threadId());
+          if (!reported.contains(leak.threadId())) {
+            notify(listener, leak);
+          }
+        }
+        reported = leaking;
+        Thread.sleep(intervalMillis);
+      }
+    } catch (InterruptedException e) {
+      // Stopped
+    }
+  }
+
+  /** Listener failure is reported to the uncaught exception handler and doesn't stop detection. */
+  private static void notify(LeakListener listener, ThreadLeak leak) {
+    try {
+      listener.onLeak(leak);
+    } catch (RuntimeException e) {
+      Thread thread = Thread.currentThread();
+      thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+    }
+  }
+
+  /**
+   * Register as platform MBean {@link #MBEAN_NAME}, e.g. to watch in JConsole.
+   *
+   * @throws IllegalStateException if it's registered already.
+   */
+  public ObjectName registerMBean() {
+    try {
+      ObjectName objectName = new ObjectName(MBEAN_NAME);
+      ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+      return objectName;
+    } catch (InstanceAlreadyExistsException e) {
+      throw new IllegalStateException("MBean " + MBEAN_NAME + " is already registered", e);
+    } catch (JMException e) {
+      throw new IllegalStateException("Failed to register MBean " + MBEAN_NAME, e);
+    }
+  }
+
+  public void unregisterMBean() {
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    try {
+      ObjectName objectName = new ObjectName(MBEAN_NAME);
+      if (server.isRegistered(objectName)) {
+        server.unregisterMBean(objectName);
+      }
+    } catch (JMException e) {
+      throw new IllegalStateException("Failed to unregister MBean " + MBEAN_NAME, e);
+    }
+  }
+}
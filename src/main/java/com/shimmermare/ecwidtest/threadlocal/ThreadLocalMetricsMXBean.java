@@ -0,0 +1,22 @@
+package com.shimmermare.ecwidtest.threadlocal;
+
+/** JMX view of {@link ThreadLocalMetrics}, see there for the meaning of values. */
+public interface ThreadLocalMetricsMXBean {
+  long getThreads();
+
+  long getInsertions();
+
+  long getContendedInsertions();
+
+  long getExpungedThreads();
+
+  long getLiveLocals();
+
+  long getReleasedLocals();
+
+  long getLookups();
+
+  long getMisses();
+
+  int getTerminatedThreadsWithValues();
+}
@@ -0,0 +1,178 @@
+package com.shimmermare.ecwidtest.threadlocal;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Pool of reusable objects, e.g. scratch buffers or string builders, for hot paths that shouldn't
+ * allocate on every call.
+ *
+ * <p>Every thread has its own small free list in a {@link CustomThreadLocal}, so borrowing and
+ * releasing on the same thread is an array access without any synchronization. Objects released
+ * to a full free list, which happens when one thread borrows and another releases, overflow to a
+ * shared lock-free stack, and threads with an empty free list take objects from it before creating
+ * new ones. Both are bounded: objects that don't fit anywhere are dropped and left to GC.
+ *
+ * <p>Objects are reset when released, not when borrowed, so the pool never holds on to content of
+ * released objects. Borrowed objects aren't tracked: an object that is never released is just
+ * collected as usual.
+ */
+public final class ThreadLocalPool<T> {
+  private final Supplier<? extends T> factory;
+  private final Consumer<? super T> reset;
+  private final int localCapacity;
+  private final int sharedCapacity;
+  private final CustomThreadLocal<FreeList> freeLists;
+
+  // Treiber stack, every push makes a new node, so there's no ABA
+  private final AtomicReference<Node<T>> sharedTop = new AtomicReference<>();
+  private final AtomicInteger sharedSize = new AtomicInteger();
+
+  private final LongAdder created = new LongAdder();
+  private final LongAdder dropped = new LongAdder();
+
+  /** Without reset, with 4 objects per thread and 4 per available processor in shared stack. */
+  public ThreadLocalPool(Supplier<? extends T> factory) {
+    this(factory, object -> {});
+  }
+
+  /** With 4 objects per thread and 4 per available processor in shared stack. */
+  public ThreadLocalPool(Supplier<? extends T> factory, Consumer<? super T> reset) {
+    this(factory, reset, 4, Runtime.getRuntime().availableProcessors() * 4);
+  }
+
+  /**
+   * @param reset called on every released object before it's pooled.
+   * @param localCapacity max objects in the free list of one thread, 0 to only use shared stack.
+   * @param sharedCapacity max objects in the shared stack, 0 to only use free lists.
+   */
+  public ThreadLocalPool(
+      Supplier<? extends T> factory,
+      Consumer<? super T> reset,
+      int localCapacity,
+      int sharedCapacity) {
+    if (localCapacity < 0 || sharedCapacity < 0) {
+      throw new IllegalArgumentException("Capacity can't be negative");
+    }
+    this.factory = Objects.requireNonNull(factory);
+    this.reset = Objects.requireNonNull(reset);
+    this.localCapacity = localCapacity;
+    this.sharedCapacity = sharedCapacity;
+    this.freeLists = CustomThreadLocal.withInitial(() -> new FreeList(localCapacity));
+  }
+
+  /** @return pooled object, or a new one if there are none. */
+  @SuppressWarnings("unchecked")
+  public T borrow() {
+    if (localCapacity > 0) {
+      FreeList local = freeLists.get();
+      if (local.size > 0) {
+        int last = --local.size;
+        Object object = local.objects[last];
+        local.objects[last] = null;
+        return (T) object;
+      }
+    }
+    T object = pop();
+    if (object != null) {
+      return object;
+    }
+    created.increment();
+    return Objects.requireNonNull(factory.get(), "Factory returned null");
+  }
+
+  /**
+   * Reset the object and return it to the pool. Object shouldn't be used after that, and shouldn't
+   * be released twice.
+   */
+  public void release(T object) {
+    Objects.requireNonNull(object);
+    reset.accept(object);
+    if (localCapacity > 0) {
+      FreeList local = freeLists.get();
+      if (local.size < localCapacity) {
+        local.objects[local.size++] = object;
+        return;
+      }
+    }
+    if (!push(object)) {
+      dropped.increment();
+    }
+  }
+
+  public int localCapacity() {
+    return localCapacity;
+  }
+
+  public int sharedCapacity() {
+    return sharedCapacity;
+  }
+
+  /** @return number of objects in the shared stack, may be stale. */
+  public int sharedSize() {
+    return Math.min(sharedSize.get(), sharedCapacity);
+  }
+
+  /** @return number of objects created by factory. */
+  public long created() {
+    return created.sum();
+  }
+
+  /** @return number of released objects that didn't fit into the pool. */
+  public long dropped() {
+    return dropped.sum();
+  }
+
+  private boolean push(T object) {
+    // Size is reserved before the push, so it never exceeds capacity
+    if (sharedSize.get() >= sharedCapacity) {
+      return false;
+    }
+    if (sharedSize.incrementAndGet() > sharedCapacity) {
+      sharedSize.decrementAndGet();
+      return false;
+    }
+    Node<T> node = new Node<>(object);
+    Node<T> top;
+    do {
+      top = sharedTop.get();
+      node.next = top;
+    } while (!sharedTop.compareAndSet(top, node));
+    return true;
+  }
+
+  private T pop() {
+    Node<T> top;
+    do {
+      top = sharedTop.get();
+      if (top == null) {
+        return null;
+      }
+    } while (!sharedTop.compareAndSet(top, top.next));
+    sharedSize.decrementAndGet();
+    return top.object;
+  }
+
+  /** Only accessed by its own thread. */
+  private static final class FreeList {
+    private final Object[] objects;
+    private int size;
+
+    private FreeList(int capacity) {
+      this.objects = new Object[capacity];
+    }
+  }
+
+  private static final class Node<T> {
+    private final T object;
+    private Node<T> next;
+
+    private Node(T object) {
+      this.object = object;
+    }
+  }
+}
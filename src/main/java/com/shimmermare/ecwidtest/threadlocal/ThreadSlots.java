@@ -0,0 +1,149 @@
+package com.shimmermare.ecwidtest.threadlocal;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Values of all {@link CustomThreadLocal}s for one thread, in an array indexed by ids of locals.
+ *
+ * <p>Ids are dense: lowest free one is given to every new local and released when it's collected,
+ * so arrays stay as long as the highest id in use. Array holds a pair of the local's token and
+ * value for every id. Token tells values of the current owner of id apart from values left by its
+ * previous owner, so correctness doesn't depend on clearing on release, it only frees memory.
+ *
+ * <p>Still, clearing shouldn't miss values: if the owner grew its array at the same moment, a
+ * cleared value could be copied back from the old array and stay reachable for the rest of the
+ * thread's life. So growing and clearing both take the lock of the slots. Growth is rare and
+ * clearing happens on the cleaner thread, so lookups and writes that fit the array stay lock-free.
+ *
+ * <p>{@link SlotThread} keeps its slots in a field. Other threads are looked up in a weak table,
+ * which also keeps slots of all threads for clearing released ids.
+ */
+final class ThreadSlots {
+  // Keeps doubled id in int range
+  private static final int MAX_IDS = 1 << 29;
+  private static final Object[] EMPTY = new Object[0];
+
+  static final WeakThreadTable<ThreadSlots> REGISTRY = new WeakThreadTable<>();
+  // Guarded by itself
+  private static final BitSet USED_IDS = new BitSet();
+
+  // Counting every lookup isn't free, so it's off unless asked for at startup
+  static final boolean COUNT_LOOKUPS =
+      Boolean.getBoolean(ThreadLocalMetrics.COUNT_LOOKUPS_PROPERTY);
+  static final LongAdder LOOKUPS = new LongAdder();
+  static final LongAdder MISSES = new LongAdder();
+  static final LongAdder CREATED_LOCALS = new LongAdder();
+  static final LongAdder RELEASED_LOCALS = new LongAdder();
+
+  // Token of local at [id * 2], its value at [id * 2 + 1]. Written by the owner thread only,
+  // except for clearing of released ids. Replaced only under the lock of this
+  Object[] values = EMPTY;
+
+  private ThreadSlots() {}
+
+  /** @return slots of the current thread, null if it has none yet. */
+  static ThreadSlots find() {
+    Thread thread = Thread.currentThread();
+    if (thread instanceof SlotThread) {
+      return ((SlotThread) thread).slots;
+    }
+    return REGISTRY.get(thread);
+  }
+
+  /** @return slots of the current thread, created on first call. */
+  static ThreadSlots current() {
+    ThreadSlots slots = find();
+    if (slots == null) {
+      slots = new ThreadSlots();
+      REGISTRY.insert(slots);
+      Thread thread = Thread.currentThread();
+      if (thread instanceof SlotThread) {
+        ((SlotThread) thread).slots = slots;
+      }
+    }
+    return slots;
+  }
+
+  /** Drop slots of dead threads, if any. Cheap when there are none. */
+  static void expungeDeadThreads() {
+    REGISTRY.expungeDeadEntries();
+  }
+
+  static int allocateId() {
+    synchronized (USED_IDS) {
+      int id = USED_IDS.nextClearBit(0);
+      if (id >= MAX_IDS) {
+        throw new IllegalStateException("Too many thread locals");
+      }
+      USED_IDS.set(id);
+      CREATED_LOCALS.increment();
+      return id;
+    }
+  }
+
+  /** Clear values of the discarded local in all threads and let its id be reused. */
+  static void releaseId(int id, Object token) {
+    REGISTRY.forEach(slots -> slots.clear(id, token));
+    REGISTRY.expungeDeadEntries();
+    synchronized (USED_IDS) {
+      USED_IDS.clear(id);
+    }
+    RELEASED_LOCALS.increment();
+  }
+
+  void set(int id, Object token, Object value) {
+    int i = id << 1;
+    Object[] values = this.values;
+    if (i >= values.length) {
+      values = grow(i + 2);
+    }
+    values[i] = token;
+    values[i + 1] = value;
+  }
+
+  void remove(int id) {
+    int i = id << 1;
+    Object[] values = this.values;
+    if (i < values.length) {
+      values[i + 1] = null;
+      values[i] = null;
+    }
+  }
+
+  /** @return true if the local has a value here, which may be null. */
+  boolean contains(int id, Object token) {
+    int i = id << 1;
+    Object[] values = this.values;
+    return i < values.length && values[i] == token;
+  }
+
+  /** @return number of non-null values of all locals. */
+  int valueCount() {
+    Object[] values = this.values;
+    int count = 0;
+    for (int i = 0; i < values.length; i += 2) {
+      if (values[i] != null && values[i + 1] != null) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /** Copy values to a longer array, not concurrently with clearing, see class doc. */
+  private synchronized Object[] grow(int minLength) {
+    Object[] values = this.values;
+    this.values = values = Arrays.copyOf(values, Math.max(minLength, values.length * 2));
+    return values;
+  }
+
+  private synchronized void clear(int id, Object token) {
+    int i = id << 1;
+    Object[] values = this.values;
+    if (i < values.length && values[i] == token) {
+      values[i + 1] = null;
+      values[i] = null;
+    }
+  }
+}
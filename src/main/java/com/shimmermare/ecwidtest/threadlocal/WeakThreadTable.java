@@ -0,0 +1,256 @@
+package com.shimmermare.ecwidtest.threadlocal;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Array;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Values of threads in an open-addressing table of entries keyed by thread. Entry refers to its
+ * thread weakly, so table doesn't prevent GC of finished threads, and their entries are dropped
+ * when they come out of a {@link ReferenceQueue}.
+ *
+ * <p>Only the owning thread ever inserts its entry, which makes lookups lock-free: they are a probe
+ * of the table and never block. Inserts take a lock of their segment, which also guards removal of
+ * dead entries and growing the table. Readers don't take it: new entries are published with
+ * release semantics, and grown table is a copy that holds the same entry objects.
+ *
+ * <p>Table is split into segments by the highest bits of hash, each with its own lock, so that
+ * many threads starting at once (think of virtual threads, created per request) don't queue on one
+ * lock to insert their entries, and growing one segment copies only a small part of all entries.
+ */
+final class WeakThreadTable<V> {
+  private static final int INITIAL_CAPACITY = 16;
+  // Segment is grown when occupied slots, including tombstones, exceed this share of capacity
+  private static final int MAX_LOAD_PERCENT = 50;
+  private static final int MAX_SEGMENT_BITS = 8;
+
+  // Slot of removed dead entry, keeps probe sequences unbroken
+  private static final Entry<?> TOMBSTONE = new Entry<>(null, 0, null, null);
+
+  private final ReferenceQueue<Thread> deadThreads = new ReferenceQueue<>();
+  private final Segment[] segments;
+  private final int segmentShift;
+
+  private final LongAdder insertions = new LongAdder();
+  private final LongAdder contendedInsertions = new LongAdder();
+  private final LongAdder expungedEntries = new LongAdder();
+
+  WeakThreadTable() {
+    // A few segments per core are enough to make lock collisions rare
+    int bits = 0;
+    while (bits < MAX_SEGMENT_BITS && 1 << bits < Runtime.getRuntime().availableProcessors() * 4) {
+      bits++;
+    }
+    @SuppressWarnings("unchecked")
+    Segment[] segments = (Segment[]) Array.newInstance(Segment.class, 1 << bits);
+    for (int i = 0; i < segments.length; i++) {
+      segments[i] = new Segment();
+    }
+    this.segments = segments;
+    // Shift by 32 is a no-op in Java, so single segment takes hash bit 0 which is then masked out
+    this.segmentShift = bits == 0 ? 0 : Integer.SIZE - bits;
+  }
+
+  /** @return value of the thread, null if there's none. */
+  V get(Thread thread) {
+    int hash = hash(thread);
+    AtomicReferenceArray<Entry<V>> table = segment(hash).table;
+    int mask = table.length() - 1;
+    for (int i = hash & mask; ; i = (i + 1) & mask) {
+      Entry<V> entry = table.getAcquire(i);
+      if (entry == null) {
+        return null;
+      }
+      if (entry.hash == hash && entry.get() == thread) {
+        return entry.value;
+      }
+    }
+  }
+
+  /** Add value of the current thread, which shouldn't have one yet. */
+  void insert(V value) {
+    expungeDeadEntries();
+    Thread thread = Thread.currentThread();
+    int hash = hash(thread);
+    Segment segment = segment(hash);
+    insertions.increment();
+    if (!segment.tryLock()) {
+      contendedInsertions.increment();
+      segment.lock();
+    }
+    try {
+      AtomicReferenceArray<Entry<V>> table = segment.table;
+      if ((segment.occupiedSlots + 1) * 100 > table.length() * MAX_LOAD_PERCENT) {
+        table = segment.rebuild();
+      }
+      Entry<V> entry = new Entry<>(thread, hash, value, deadThreads);
+      int mask = table.length() - 1;
+      // Only the owner inserts its entry, so there's no need to look for a duplicate
+      for (int i = entry.hash & mask; ; i = (i + 1) & mask) {
+        Entry<V> slot = table.get(i);
+        if (slot == null || slot == TOMBSTONE) {
+          if (slot == null) {
+            segment.occupiedSlots++;
+          }
+          segment.liveSlots++;
+          table.setRelease(i, entry);
+          return;
+        }
+      }
+    } finally {
+      segment.unlock();
+    }
+  }
+
+  /** Drop entries of dead threads, if any. Cheap when there are none. */
+  void expungeDeadEntries() {
+    Entry<V> dead;
+    while ((dead = pollDead()) != null) {
+      Segment segment = segment(dead.hash);
+      segment.lock();
+      try {
+        if (segment.expunge(dead)) {
+          expungedEntries.increment();
+        }
+      } finally {
+        segment.unlock();
+      }
+    }
+  }
+
+  /** Poll doesn't take the queue lock when it's empty. */
+  @SuppressWarnings("unchecked")
+  private Entry<V> pollDead() {
+    // Only entries are registered with the queue
+    return (Entry<V>) deadThreads.poll();
+  }
+
+  /** Call action for values of live threads, and maybe of a few dead ones. */
+  void forEach(Consumer<? super V> action) {
+    forEach((thread, value) -> action.accept(value));
+  }
+
+  /** Same as {@link #forEach(Consumer)}, thread is null if it's collected already. */
+  void forEach(BiConsumer<Thread, ? super V> action) {
+    for (Segment segment : segments) {
+      AtomicReferenceArray<Entry<V>> table = segment.table;
+      for (int i = 0; i < table.length(); i++) {
+        Entry<V> entry = table.getAcquire(i);
+        if (entry != null && entry != TOMBSTONE) {
+          action.accept(entry.get(), entry.value);
+        }
+      }
+    }
+  }
+
+  /** @return number of entries, including those of collected threads that aren't expunged yet. */
+  long size() {
+    return insertions.sum() - expungedEntries.sum();
+  }
+
+  long insertions() {
+    return insertions.sum();
+  }
+
+  /** @return number of insertions that had to wait for the lock of their segment. */
+  long contendedInsertions() {
+    return contendedInsertions.sum();
+  }
+
+  long expungedEntries() {
+    return expungedEntries.sum();
+  }
+
+  /**
+   * Thread ids are unique for the lifetime of JVM and are cheaper to hash than identity, which
+   * matters on the lookup path. Equality is still checked by identity.
+   */
+  static int hash(Thread thread) {
+    return (int) (thread.getId() * 0x9E3779B97F4A7C15L >>> 32);
+  }
+
+  private Segment segment(int hash) {
+    return segments[(hash >>> segmentShift) & (segments.length - 1)];
+  }
+
+  // Lock guards everything but reads of the table
+  @SuppressWarnings("serial")
+  private final class Segment extends ReentrantLock {
+    private volatile AtomicReferenceArray<Entry<V>> table =
+        new AtomicReferenceArray<>(INITIAL_CAPACITY);
+    // Guarded by the lock
+    private int liveSlots;
+    private int occupiedSlots;
+
+    /**
+     * Guarded by the lock. Replace entry of dead thread with a tombstone.
+     *
+     * @return false if it was dropped by rebuild already.
+     */
+    @SuppressWarnings("unchecked")
+    private boolean expunge(Entry<V> dead) {
+      AtomicReferenceArray<Entry<V>> table = this.table;
+      int mask = table.length() - 1;
+      for (int i = dead.hash & mask; ; i = (i + 1) & mask) {
+        Entry<V> entry = table.get(i);
+        if (entry == null) {
+          return false;
+        }
+        if (entry == dead) {
+          table.set(i, (Entry<V>) TOMBSTONE);
+          liveSlots--;
+          return true;
+        }
+      }
+    }
+
+    /** Guarded by the lock. Copy live entries to a new table that fits them and one more. */
+    private AtomicReferenceArray<Entry<V>> rebuild() {
+      AtomicReferenceArray<Entry<V>> old = this.table;
+      int capacity = INITIAL_CAPACITY;
+      while ((liveSlots + 1) * 100 > capacity * MAX_LOAD_PERCENT / 2) {
+        capacity <<= 1;
+      }
+      AtomicReferenceArray<Entry<V>> table = new AtomicReferenceArray<>(capacity);
+      int mask = capacity - 1;
+      int live = 0;
+      for (int j = 0; j < old.length(); j++) {
+        Entry<V> entry = old.get(j);
+        if (entry == null || entry == TOMBSTONE) {
+          continue;
+        }
+        if (entry.get() == null) {
+          // Dead, but not enqueued yet, expunge won't find it
+          expungedEntries.increment();
+          continue;
+        }
+        int i = entry.hash & mask;
+        while (table.get(i) != null) {
+          i = (i + 1) & mask;
+        }
+        table.set(i, entry);
+        live++;
+      }
+      liveSlots = live;
+      occupiedSlots = live;
+      this.table = table;
+      return table;
+    }
+  }
+
+  private static final class Entry<V> extends WeakReference<Thread> {
+    private final int hash;
+    private final V value;
+
+    private Entry(Thread thread, int hash, V value, ReferenceQueue<Thread> queue) {
+      super(thread, queue);
+      this.hash = hash;
+      this.value = value;
+    }
+  }
+}
@@ -0,0 +1,126 @@
+package com.shimmermare.ecwidtest.test.ipaddrcounter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.shimmermare.ecwidtest.ipaddrcounter.AdaptiveBitmap;
+import com.shimmermare.ecwidtest.ipaddrcounter.AddressBitmap;
+import com.shimmermare.ecwidtest.ipaddrcounter.ChunkedBitmap;
+import com.shimmermare.ecwidtest.ipaddrcounter.OffHeapBitmap;
+import com.shimmermare.ecwidtest.ipaddrcounter.RoaringBitmap;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+public class AddressBitmapTests {
+  static Stream<Supplier<AddressBitmap>> bitmaps() {
+    return Stream.of(
+        ChunkedBitmap::new, OffHeapBitmap::new, () -> new AdaptiveBitmap(10), RoaringBitmap::new);
+  }
+
+  @ParameterizedTest
+  @MethodSource("bitmaps")
+  public void addsAndContains(Supplier<AddressBitmap> factory) {
+    AddressBitmap bitmap = factory.get();
+
+    assertTrue(bitmap.add(0));
+    assertTrue(bitmap.add(-1));
+    assertTrue(bitmap.add(0x01020304));
+    assertFalse(bitmap.add(0x01020304));
+
+    assertTrue(bitmap.contains(0));
+    assertTrue(bitmap.contains(0xFFFFFFFF));
+    assertTrue(bitmap.contains(0x01020304));
+    assertFalse(bitmap.contains(0x01020305));
+    assertEquals(3, bitmap.cardinality());
+  }
+
+  @ParameterizedTest
+  @MethodSource("bitmaps")
+  public void matchesHashSet(Supplier<AddressBitmap> factory) {
+    AddressBitmap bitmap = factory.get();
+    Set<Integer> expected = new HashSet<>();
+    Random random = new Random();
+    for (int i = 0; i < 100_000; i++) {
+      // Mix of scattered and clustered addresses
+      int address = random.nextBoolean() ? random.nextInt() : 0x0A000000 | random.nextInt(50_000);
+      assertEquals(expected.add(address), bitmap.add(address));
+    }
+    assertEquals(expected.size(), bitmap.cardinality());
+  }
+
+  @ParameterizedTest
+  @MethodSource("bitmaps")
+  public void addsBatches(Supplier<AddressBitmap> factory) {
+    AddressBitmap bitmap = factory.get();
+    Set<Integer> expected = new HashSet<>();
+    Random random = new Random();
+    int[] batch = new int[1000];
+    for (int round = 0; round < 50; round++) {
+      for (int i = 0; i < batch.length; i++) {
+        batch[i] = random.nextBoolean() ? random.nextInt() : 0x0A000000 | random.nextInt(5_000);
+        expected.add(batch[i]);
+      }
+      // Only a prefix of the array is a batch, the rest is added one by one
+      int n = batch.length - round;
+      for (int i = n; i < batch.length; i++) {
+        bitmap.add(batch[i]);
+      }
+      long before = bitmap.cardinality();
+      assertEquals(expected.size() - before, bitmap.addAll(batch, n));
+    }
+    assertEquals(expected.size(), bitmap.cardinality());
+    for (int address : expected) {
+      assertTrue(bitmap.contains(address));
+    }
+  }
+
+  @ParameterizedTest
+  @MethodSource("bitmaps")
+  public void copiesBlocks(Supplier<AddressBitmap> factory) {
+    AddressBitmap source = factory.get();
+    AddressBitmap target = factory.get();
+    Random random = new Random();
+    for (int i = 0; i < 10_000; i++) {
+      source.add(random.nextInt(1 << 20));
+      target.add(random.nextInt(1 << 20));
+    }
+
+    long[] words = new long[AddressBitmap.BLOCK_WORDS];
+    Set<Integer> union = new HashSet<>();
+    for (int i = 0; i < (1 << 20); i++) {
+      if (source.contains(i) || target.contains(i)) {
+        union.add(i);
+      }
+    }
+    for (int block = 0; block < AddressBitmap.BLOCK_COUNT; block++) {
+      if (source.readBlock(block, words)) {
+        target.orBlock(block, words);
+      }
+    }
+    assertEquals(union.size(), target.cardinality());
+    for (int address : union) {
+      assertTrue(target.contains(address));
+    }
+  }
+
+  @Test
+  public void adaptiveMovesOffHeap() {
+    AdaptiveBitmap bitmap = new AdaptiveBitmap(2);
+    bitmap.add(0);
+    bitmap.add(AddressBitmap.BLOCK_SIZE);
+    assertFalse(bitmap.isOffHeap());
+
+    bitmap.add(AddressBitmap.BLOCK_SIZE * 2);
+    assertTrue(bitmap.isOffHeap());
+    assertEquals(3, bitmap.cardinality());
+    assertTrue(bitmap.contains(AddressBitmap.BLOCK_SIZE));
+    assertFalse(bitmap.add(0));
+  }
+}
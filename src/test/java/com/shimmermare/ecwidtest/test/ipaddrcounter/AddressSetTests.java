@@ -0,0 +1,115 @@
+package com.shimmermare.ecwidtest.test.ipaddrcounter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.shimmermare.ecwidtest.ipaddrcounter.AddressSet;
+import com.shimmermare.ecwidtest.ipaddrcounter.ChunkedBitmap;
+import com.shimmermare.ecwidtest.ipaddrcounter.ChunkedUniqueIPCounter;
+import com.shimmermare.ecwidtest.ipaddrcounter.RoaringBitmap;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+public class AddressSetTests {
+  @Test
+  public void todayButNotYesterday() throws IOException {
+    ChunkedUniqueIPCounter yesterday = count("1.1.1.1\n2.2.2.2\n3.3.3.3");
+    ChunkedUniqueIPCounter today = count("2.2.2.2\n3.3.3.3\n4.4.4.4\n5.5.5.5");
+    yesterday.count();
+    today.count();
+
+    AddressSet newToday = today.addresses().andNot(yesterday.addresses());
+    assertEquals(2, newToday.cardinality());
+    assertTrue(newToday.contains(0x04040404));
+    assertTrue(newToday.contains(0x05050505));
+    assertFalse(newToday.contains(0x02020202));
+  }
+
+  @Test
+  public void matchesHashSets() {
+    Random random = new Random();
+    Set<Integer> left = new HashSet<>();
+    Set<Integer> right = new HashSet<>();
+    ChunkedBitmap leftBitmap = new ChunkedBitmap();
+    RoaringBitmap rightBitmap = new RoaringBitmap();
+    for (int i = 0; i < 50_000; i++) {
+      // Overlapping dense range and disjoint scattered addresses
+      int shared = 0x0A000000 | random.nextInt(1 << 16);
+      int scattered = random.nextInt();
+      if (i % 2 == 0) {
+        left.add(shared);
+        leftBitmap.add(shared);
+        left.add(scattered);
+        leftBitmap.add(scattered);
+      } else {
+        right.add(shared);
+        rightBitmap.add(shared);
+        right.add(scattered);
+        rightBitmap.add(scattered);
+      }
+    }
+    AddressSet a = AddressSet.of(leftBitmap);
+    AddressSet b = AddressSet.of(rightBitmap);
+
+    Set<Integer> union = new HashSet<>(left);
+    union.addAll(right);
+    Set<Integer> intersection = new HashSet<>(left);
+    intersection.retainAll(right);
+    Set<Integer> andNot = new HashSet<>(left);
+    andNot.removeAll(right);
+    Set<Integer> xor = new HashSet<>(union);
+    xor.removeAll(intersection);
+
+    assertMatches(union, a.union(b), a.unionCardinality(b));
+    assertMatches(intersection, a.intersection(b), a.intersectionCardinality(b));
+    assertMatches(andNot, a.andNot(b), a.andNotCardinality(b));
+    assertMatches(xor, a.xor(b), a.xorCardinality(b));
+  }
+
+  @Test
+  public void emptySets() {
+    AddressSet empty = AddressSet.empty();
+    ChunkedBitmap bitmap = new ChunkedBitmap();
+    bitmap.add(42);
+    AddressSet one = AddressSet.of(bitmap);
+
+    assertEquals(1, one.union(empty).cardinality());
+    assertTrue(one.intersection(empty).isEmpty());
+    assertTrue(one.andNot(one).isEmpty());
+    assertTrue(one.xor(one).isEmpty());
+    assertEquals(0, empty.andNotCardinality(one));
+  }
+
+  @Test
+  public void isSnapshot() {
+    ChunkedBitmap bitmap = new ChunkedBitmap();
+    bitmap.add(1);
+    AddressSet set = AddressSet.of(bitmap);
+    bitmap.add(2);
+    assertFalse(set.contains(2));
+
+    RoaringBitmap copy = new RoaringBitmap();
+    set.copyTo(copy);
+    assertEquals(1, copy.cardinality());
+    assertTrue(copy.contains(1));
+  }
+
+  private static void assertMatches(Set<Integer> expected, AddressSet actual, long cardinality) {
+    assertEquals(expected.size(), actual.cardinality());
+    assertEquals(expected.size(), cardinality);
+    for (int address : expected) {
+      assertTrue(actual.contains(address));
+    }
+  }
+
+  private static ChunkedUniqueIPCounter count(String lines) {
+    return new ChunkedUniqueIPCounter(
+        new ByteArrayInputStream(lines.getBytes(StandardCharsets.US_ASCII)));
+  }
+}
@@ -0,0 +1,102 @@
+package com.shimmermare.ecwidtest.test.ipaddrcounter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.shimmermare.ecwidtest.ipaddrcounter.AddressBitmap;
+import com.shimmermare.ecwidtest.ipaddrcounter.BitmapSnapshot;
+import com.shimmermare.ecwidtest.ipaddrcounter.ChunkedBitmap;
+import com.shimmermare.ecwidtest.ipaddrcounter.ChunkedUniqueIPCounter;
+import com.shimmermare.ecwidtest.ipaddrcounter.RoaringBitmap;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class BitmapSnapshotTests {
+  @TempDir Path tempDir;
+
+  @Test
+  public void roundTrips() throws IOException {
+    ChunkedBitmap original = new ChunkedBitmap();
+    Random random = new Random();
+    for (int i = 0; i < 50_000; i++) {
+      original.add(random.nextInt());
+    }
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    BitmapSnapshot.write(original, out);
+    AddressBitmap copy = BitmapSnapshot.read(new ByteArrayInputStream(out.toByteArray()));
+
+    assertEquals(original.cardinality(), copy.cardinality());
+    long[] expected = new long[AddressBitmap.BLOCK_WORDS];
+    long[] actual = new long[AddressBitmap.BLOCK_WORDS];
+    for (int block = 0; block < AddressBitmap.BLOCK_COUNT; block++) {
+      boolean populated = original.readBlock(block, expected);
+      assertEquals(populated, copy.readBlock(block, actual));
+      if (populated) {
+        assertTrue(Arrays.equals(expected, actual));
+      }
+    }
+  }
+
+  @Test
+  public void mergesNodeSnapshots() throws IOException {
+    Path first = tempDir.resolve("node1.bin");
+    Path second = tempDir.resolve("node2.bin");
+    countAndSave("1.1.1.1\n2.2.2.2\n3.3.3.3", first);
+    countAndSave("3.3.3.3\n4.4.4.4\n1.1.1.1", second);
+
+    AddressBitmap merged = new RoaringBitmap();
+    try (InputStream in = new BufferedInputStream(Files.newInputStream(first))) {
+      assertEquals(3, BitmapSnapshot.merge(in, merged));
+    }
+    try (InputStream in = new BufferedInputStream(Files.newInputStream(second))) {
+      assertEquals(1, BitmapSnapshot.merge(in, merged));
+    }
+    assertEquals(4, merged.cardinality());
+  }
+
+  @Test
+  public void sparseSnapshotIsSmall() throws IOException {
+    ChunkedBitmap bitmap = new ChunkedBitmap();
+    bitmap.add(0x01020304);
+    bitmap.add(0x7F000001);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    BitmapSnapshot.write(bitmap, out);
+    // Header + 2 * (index + mask + word) + end
+    assertEquals(8 + 2 * 20 + 4, out.size());
+  }
+
+  @Test
+  public void breaksOnTruncated() throws IOException {
+    ChunkedBitmap bitmap = new ChunkedBitmap();
+    bitmap.add(42);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    BitmapSnapshot.write(bitmap, out);
+    byte[] truncated = Arrays.copyOf(out.toByteArray(), out.size() - 6);
+
+    assertThrows(
+        IOException.class,
+        () -> BitmapSnapshot.merge(new ByteArrayInputStream(truncated), new ChunkedBitmap()));
+  }
+
+  private static void countAndSave(String input, Path file) throws IOException {
+    ChunkedUniqueIPCounter counter =
+        new ChunkedUniqueIPCounter(new ByteArrayInputStream(input.getBytes()));
+    counter.count();
+    try (OutputStream out = Files.newOutputStream(file)) {
+      BitmapSnapshot.write(counter.bitmap(), out);
+    }
+  }
+}
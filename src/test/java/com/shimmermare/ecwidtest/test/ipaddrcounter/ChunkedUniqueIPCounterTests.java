@@ -4,16 +4,22 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
 import com.shimmermare.ecwidtest.ipaddrcounter.ChunkedUniqueIPCounter;
+import com.shimmermare.ecwidtest.ipaddrcounter.UniqueIPAccumulator;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Random;
 import java.util.Set;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 public class ChunkedUniqueIPCounterTests {
+  @TempDir Path tempDir;
+
   @Test
   public void counts() throws IOException {
     String input = "0.0.0.0\n1.1.1.1\n2.2.2.2\n255.255.255.255\n1.1.1.1";
@@ -25,6 +31,54 @@ public class ChunkedUniqueIPCounterTests {
     in.close();
   }
 
+  @Test
+  public void countsWindowsLineEndings() throws IOException {
+    String input = "1.1.1.1\r\n2.2.2.2\r\n1.1.1.1\r\n";
+    InputStream in = new ByteArrayInputStream(input.getBytes());
+
+    ChunkedUniqueIPCounter counter = new ChunkedUniqueIPCounter(in);
+    assertEquals(2, counter.count());
+
+    in.close();
+  }
+
+  @Test
+  public void countsMappedFile() throws IOException {
+    Path file = tempDir.resolve("ips.txt");
+    Files.writeString(file, "0.0.0.0\n1.1.1.1\n2.2.2.2\n255.255.255.255\n1.1.1.1");
+
+    ChunkedUniqueIPCounter counter = new ChunkedUniqueIPCounter(file);
+    assertEquals(4, counter.count());
+  }
+
+  @Test
+  public void countsLinesAcrossMappingWindows() throws IOException {
+    Path file = tempDir.resolve("ips.txt");
+    Files.writeString(file, "10.0.0.1\r\n10.0.0.2\n10.0.0.3\n192.168.100.200\n10.0.0.1\n");
+
+    // Window is smaller than two lines, so almost every line crosses the boundary
+    UniqueIPAccumulator accumulator = new UniqueIPAccumulator();
+    assertEquals(4, accumulator.addLines(file, 17));
+  }
+
+  @Test
+  public void breaksOnLineLongerThanMappingWindow() throws IOException {
+    Path file = tempDir.resolve("ips.txt");
+    Files.writeString(file, "1.1.1.1\n255.255.255.255\n");
+
+    UniqueIPAccumulator accumulator = new UniqueIPAccumulator();
+    assertThrows(IOException.class, () -> accumulator.addLines(file, 10));
+  }
+
+  @Test
+  public void breaksOnBadFormatInMappedFile() throws IOException {
+    Path file = tempDir.resolve("ips.txt");
+    Files.writeString(file, "1.1.1.1\n1.1.1_1\n");
+
+    ChunkedUniqueIPCounter counter = new ChunkedUniqueIPCounter(file);
+    assertThrows(IllegalArgumentException.class, counter::count);
+  }
+
   @Test
   public void breaksOnBadFormat() {
     assertThrows(
@@ -0,0 +1,112 @@
+package com.shimmermare.ecwidtest.test.ipaddrcounter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.shimmermare.ecwidtest.ipaddrcounter.CountingMetrics;
+import com.shimmermare.ecwidtest.ipaddrcounter.CountingStats;
+import com.shimmermare.ecwidtest.ipaddrcounter.UniqueIPAccumulator;
+import java.io.ByteArrayInputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class CountingMetricsTests {
+  @TempDir Path tempDir;
+
+  @Test
+  public void countsLinesAndBytes() throws Exception {
+    UniqueIPAccumulator accumulator = new UniqueIPAccumulator();
+    byte[] input = "1.1.1.1\n1.1.1.2\r\n1.1.1.1".getBytes(StandardCharsets.US_ASCII);
+    accumulator.addLines(new ByteArrayInputStream(input));
+
+    CountingStats stats = accumulator.metrics().snapshot();
+    assertEquals(3, stats.lines());
+    assertEquals(input.length, stats.bytes());
+    assertEquals(0, stats.invalidLines());
+    assertEquals(2, stats.uniqueCount());
+    assertEquals(1, stats.populatedBlocks());
+    assertTrue(stats.bitmapBytes() > 0);
+    assertTrue(stats.elapsedNanos() > 0);
+  }
+
+  @Test
+  public void countsMappedFile() throws Exception {
+    Path file = tempDir.resolve("ips.txt");
+    Files.writeString(file, "10.0.0.1\n10.0.0.2\n10.0.0.1\n");
+
+    UniqueIPAccumulator accumulator = new UniqueIPAccumulator();
+    accumulator.addLines(file, 1024);
+
+    CountingStats stats = accumulator.metrics().snapshot();
+    assertEquals(3, stats.lines());
+    assertEquals(Files.size(file), stats.bytes());
+    assertEquals(2, stats.uniqueCount());
+  }
+
+  @Test
+  public void countsInvalidLine() {
+    UniqueIPAccumulator accumulator = new UniqueIPAccumulator();
+    byte[] input = "1.1.1.1\nbad\n2.2.2.2\n".getBytes(StandardCharsets.US_ASCII);
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> accumulator.addLines(new ByteArrayInputStream(input)));
+
+    CountingStats stats = accumulator.metrics().snapshot();
+    assertEquals(2, stats.lines());
+    assertEquals("1.1.1.1\nbad\n".length(), stats.bytes());
+    assertEquals(1, stats.invalidLines());
+    assertEquals(1, stats.uniqueCount());
+  }
+
+  @Test
+  public void reportsToListener() throws Exception {
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < 10_000; i++) {
+      builder.append("10.0.").append(i / 256).append('.').append(i % 256).append('\n');
+    }
+    UniqueIPAccumulator accumulator = new UniqueIPAccumulator();
+    List<CountingStats> reports = new ArrayList<>();
+    accumulator.metrics().setListener(reports::add, 0);
+    accumulator.addLines(
+        new ByteArrayInputStream(builder.toString().getBytes(StandardCharsets.US_ASCII)));
+
+    // Every batch with zero interval, then the final one
+    assertTrue(reports.size() > 1);
+    for (int i = 1; i < reports.size(); i++) {
+      assertTrue(reports.get(i).lines() >= reports.get(i - 1).lines());
+    }
+    CountingStats last = reports.get(reports.size() - 1);
+    assertEquals(10_000, last.lines());
+    assertEquals(10_000, last.uniqueCount());
+  }
+
+  @Test
+  public void exposesMBean() throws Exception {
+    UniqueIPAccumulator accumulator = new UniqueIPAccumulator();
+    accumulator.addLines(
+        new ByteArrayInputStream("1.1.1.1\n2.2.2.2\n".getBytes(StandardCharsets.US_ASCII)));
+
+    ObjectName name = accumulator.metrics().registerMBean("test");
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    try {
+      assertEquals(CountingMetrics.MBEAN_DOMAIN, name.getDomain());
+      assertEquals(2L, server.getAttribute(name, "Lines"));
+      assertEquals(2L, server.getAttribute(name, "UniqueCount"));
+      assertEquals(0L, server.getAttribute(name, "InvalidLines"));
+      assertThrows(IllegalStateException.class, () -> accumulator.metrics().registerMBean("test"));
+    } finally {
+      CountingMetrics.unregisterMBean(name);
+    }
+    assertFalse(server.isRegistered(name));
+  }
+}
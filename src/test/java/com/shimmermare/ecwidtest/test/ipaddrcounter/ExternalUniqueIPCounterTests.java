@@ -0,0 +1,77 @@
+package com.shimmermare.ecwidtest.test.ipaddrcounter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.shimmermare.ecwidtest.ipaddrcounter.ChunkedUniqueIPCounter;
+import com.shimmermare.ecwidtest.ipaddrcounter.ExternalUniqueIPCounter;
+import com.shimmermare.ecwidtest.ipaddrcounter.IPv4ListGenerator;
+import com.shimmermare.ecwidtest.ipaddrcounter.IPv4ListGenerator.Distribution;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ExternalUniqueIPCounterTests {
+  @TempDir Path tempDir;
+
+  @Test
+  public void counts() throws IOException {
+    byte[] bytes =
+        "0.0.0.0\n1.1.1.1\n128.0.0.1\n255.255.255.255\n1.1.1.1\n".getBytes(StandardCharsets.US_ASCII);
+    ExternalUniqueIPCounter counter =
+        new ExternalUniqueIPCounter(new ByteArrayInputStream(bytes), tempDir, 64 * 1024 * 1024);
+    assertEquals(8, counter.partitions());
+    assertEquals(4, counter.count());
+  }
+
+  @Test
+  public void matchesInMemoryCount() throws IOException {
+    byte[] bytes = new IPv4ListGenerator(Distribution.ZIPF, 0.3, 11).generate(300_000);
+    long expected = new ChunkedUniqueIPCounter(new ByteArrayInputStream(bytes)).count();
+
+    // Smallest budget means most partitions
+    for (long budget : new long[] {128 * 1024, 1024 * 1024, 32 * 1024 * 1024}) {
+      ExternalUniqueIPCounter counter =
+          new ExternalUniqueIPCounter(new ByteArrayInputStream(bytes), tempDir, budget);
+      assertEquals(expected, counter.count(), "Budget " + budget);
+    }
+  }
+
+  @Test
+  public void splitsGroupsOfPartitions() throws IOException {
+    byte[] bytes = new IPv4ListGenerator(Distribution.UNIFORM, 0.5, 13).generate(100_000);
+    long expected = new ChunkedUniqueIPCounter(new ByteArrayInputStream(bytes)).count();
+
+    // 2^12 partitions are spilled to 2^8 files first
+    ExternalUniqueIPCounter counter =
+        new ExternalUniqueIPCounter(new ByteArrayInputStream(bytes), tempDir, 128 * 1024);
+    assertEquals(4096, counter.partitions());
+    assertEquals(expected, counter.count());
+    try (Stream<Path> files = Files.list(tempDir)) {
+      assertEquals(0, files.count());
+    }
+  }
+
+  @Test
+  public void deletesSpillFiles() throws IOException {
+    byte[] bytes = "1.1.1.1\n1.1.1_1\n".getBytes(StandardCharsets.US_ASCII);
+    ExternalUniqueIPCounter counter =
+        new ExternalUniqueIPCounter(new ByteArrayInputStream(bytes), tempDir, 1024 * 1024);
+    assertThrows(IllegalArgumentException.class, counter::count);
+    try (Stream<Path> files = Files.list(tempDir)) {
+      assertEquals(0, files.count());
+    }
+  }
+
+  @Test
+  public void rejectsTinyBudget() {
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> new ExternalUniqueIPCounter(new ByteArrayInputStream(new byte[0]), tempDir, 1024));
+  }
+}
@@ -0,0 +1,93 @@
+package com.shimmermare.ecwidtest.test.ipaddrcounter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.shimmermare.ecwidtest.ipaddrcounter.AdaptiveBitmap;
+import com.shimmermare.ecwidtest.ipaddrcounter.ChunkedUniqueIPCounter;
+import com.shimmermare.ecwidtest.ipaddrcounter.FieldExtractor;
+import com.shimmermare.ecwidtest.ipaddrcounter.IPv4Parser;
+import com.shimmermare.ecwidtest.ipaddrcounter.ParallelUniqueIPCounter;
+import com.shimmermare.ecwidtest.ipaddrcounter.UniqueIPAccumulator;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class FieldExtractorTests {
+  private static final String ACCESS_LOG =
+      "127.0.0.1 - frank [10/Oct/2000:13:55:36 -0700] \"GET /a.gif HTTP/1.0\" 200 2326\n"
+          + "10.0.0.2 - - [10/Oct/2000:13:55:37 -0700] \"GET / HTTP/1.0\" 200 100\n"
+          + "127.0.0.1 - frank [10/Oct/2000:13:55:38 -0700] \"GET /b.gif HTTP/1.0\" 404 0\n";
+
+  @TempDir Path tempDir;
+
+  @Test
+  public void whitespaceField() {
+    FieldExtractor first = FieldExtractor.whitespaceField(0);
+    FieldExtractor third = FieldExtractor.whitespaceField(2);
+    assertEquals(0x7F000001L, extract(first, "127.0.0.1 - frank"));
+    assertEquals(0x7F000001L, extract(first, "  \t127.0.0.1\t-"));
+    assertEquals(0x01020304L, extract(third, "a  b \t 1.2.3.4 c"));
+    assertEquals(IPv4Parser.INVALID, extract(third, "a b"));
+    assertEquals(IPv4Parser.INVALID, extract(third, "a b c"));
+  }
+
+  @Test
+  public void csvColumn() {
+    FieldExtractor column = FieldExtractor.csvColumn(2);
+    assertEquals(0x01020304L, extract(column, "x,y,1.2.3.4,z"));
+    assertEquals(0x01020304L, extract(column, "x,y,1.2.3.4"));
+    assertEquals(0x01020304L, extract(column, "\"a,b\",\"say \"\"hi\"\"\",\"1.2.3.4\",z"));
+    assertEquals(IPv4Parser.INVALID, extract(column, "x,,,1.2.3.4"));
+    assertEquals(IPv4Parser.INVALID, extract(column, "x,y"));
+    assertEquals(0x01020304L, extract(FieldExtractor.csvColumn(0, ';'), "1.2.3.4;x"));
+    assertEquals(0x01020304L, extract(FieldExtractor.csvColumn(1), "x,1.2.3.4,"));
+  }
+
+  @Test
+  public void firstIPv4() {
+    FieldExtractor extractor = FieldExtractor.firstIPv4();
+    assertEquals(0x0A000001L, extract(extractor, "client=10.0.0.1:8080 user=bob"));
+    assertEquals(0x0A000001L, extract(extractor, "v1.2.3.4 1.2.3.4.5 999.1.1.1 10.0.0.1."));
+    assertEquals(0x0A000001L, extract(extractor, "[10.0.0.1]"));
+    assertEquals(IPv4Parser.INVALID, extract(extractor, "no addresses 1.2.3 here"));
+  }
+
+  @Test
+  public void countsAccessLog() throws IOException {
+    byte[] bytes = ACCESS_LOG.getBytes(StandardCharsets.US_ASCII);
+    FieldExtractor extractor = FieldExtractor.whitespaceField(0);
+    InputStream in = new ByteArrayInputStream(bytes);
+    assertEquals(2, new ChunkedUniqueIPCounter(in, of(extractor)).count());
+
+    Path file = tempDir.resolve("access.log");
+    Files.write(file, bytes);
+    assertEquals(2, new ChunkedUniqueIPCounter(file, of(extractor)).count());
+    assertEquals(2, new ParallelUniqueIPCounter(file, 2, extractor).count());
+    assertEquals(2, new ChunkedUniqueIPCounter(file, of(FieldExtractor.firstIPv4())).count());
+  }
+
+  @Test
+  public void breaksOnMissingField() {
+    byte[] bytes = "x,1.1.1.1\nx,\n".getBytes(StandardCharsets.US_ASCII);
+    ChunkedUniqueIPCounter counter =
+        new ChunkedUniqueIPCounter(
+            new ByteArrayInputStream(bytes), of(FieldExtractor.csvColumn(1)));
+    IllegalArgumentException e = assertThrows(IllegalArgumentException.class, counter::count);
+    assertEquals("Line 1 has no valid IPv4 in CSV column 1", e.getMessage());
+  }
+
+  private static UniqueIPAccumulator of(FieldExtractor extractor) {
+    return new UniqueIPAccumulator(new AdaptiveBitmap(), extractor);
+  }
+
+  private static long extract(FieldExtractor extractor, String line) {
+    byte[] bytes = ("##" + line + "##").getBytes(StandardCharsets.US_ASCII);
+    return extractor.extract(bytes, 2, bytes.length - 2);
+  }
+}
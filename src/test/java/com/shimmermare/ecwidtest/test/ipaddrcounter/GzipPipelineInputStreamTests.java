@@ -0,0 +1,155 @@
+package com.shimmermare.ecwidtest.test.ipaddrcounter;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.shimmermare.ecwidtest.ipaddrcounter.ChunkedUniqueIPCounter;
+import com.shimmermare.ecwidtest.ipaddrcounter.GzipPipelineInputStream;
+import com.shimmermare.ecwidtest.ipaddrcounter.IPv4ListGenerator;
+import com.shimmermare.ecwidtest.ipaddrcounter.IPv4ListGenerator.Distribution;
+import com.shimmermare.ecwidtest.ipaddrcounter.ParallelUniqueIPCounter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class GzipPipelineInputStreamTests {
+  private static final byte[] DATA =
+      new IPv4ListGenerator(Distribution.SUBNETS, 0.5, 1).generate(200_000);
+
+  @TempDir Path tempDir;
+
+  @Test
+  public void inflatesStream() throws IOException {
+    byte[] compressed = gzip(DATA, 0, DATA.length);
+    try (InputStream in = new GzipPipelineInputStream(new ByteArrayInputStream(compressed))) {
+      assertArrayEquals(DATA, in.readAllBytes());
+    }
+  }
+
+  @Test
+  public void inflatesPlainMultiMemberFile() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    int half = DATA.length / 2;
+    out.write(gzip(DATA, 0, half));
+    out.write(gzip(DATA, half, DATA.length - half));
+    Path file = tempDir.resolve("ips.txt.gz");
+    Files.write(file, out.toByteArray());
+
+    try (InputStream in = GzipPipelineInputStream.open(file, 4)) {
+      assertArrayEquals(DATA, in.readAllBytes());
+    }
+  }
+
+  @Test
+  public void inflatesBlockedMembersInParallel() throws IOException {
+    Path file = tempDir.resolve("ips.txt.gz");
+    Files.write(file, bgzip(DATA));
+
+    try (InputStream in = GzipPipelineInputStream.open(file, 4)) {
+      assertArrayEquals(DATA, in.readAllBytes());
+    }
+  }
+
+  @Test
+  public void switchesToSequentialAfterPlainMember() throws IOException {
+    int half = DATA.length / 2;
+    byte[] first = new byte[half];
+    System.arraycopy(DATA, 0, first, 0, half);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    out.write(bgzip(first));
+    out.write(gzip(DATA, half, DATA.length - half));
+    Path file = tempDir.resolve("ips.txt.gz");
+    Files.write(file, out.toByteArray());
+
+    try (InputStream in = GzipPipelineInputStream.open(file, 3)) {
+      assertArrayEquals(DATA, in.readAllBytes());
+    }
+  }
+
+  @Test
+  public void detectsCorruption() throws IOException {
+    byte[] compressed = bgzip(DATA);
+    // Flip a bit of the first member CRC
+    int firstMemberSize = (compressed[16] & 0xFF | (compressed[17] & 0xFF) << 8) + 1;
+    compressed[firstMemberSize - 8] ^= 1;
+    Path file = tempDir.resolve("ips.txt.gz");
+    Files.write(file, compressed);
+
+    try (InputStream in = GzipPipelineInputStream.open(file, 2)) {
+      assertThrows(IOException.class, in::readAllBytes);
+    }
+  }
+
+  @Test
+  public void rejectsOversizedMember() throws IOException {
+    byte[] compressed = bgzip(DATA);
+    // Claim 1 GB of inflated data in the first member ISIZE
+    int firstMemberSize = (compressed[16] & 0xFF | (compressed[17] & 0xFF) << 8) + 1;
+    ByteBuffer.wrap(compressed).order(ByteOrder.LITTLE_ENDIAN).putInt(firstMemberSize - 4, 1 << 30);
+    Path file = tempDir.resolve("ips.txt.gz");
+    Files.write(file, compressed);
+
+    try (InputStream in = GzipPipelineInputStream.open(file, 2)) {
+      IOException e = assertThrows(IOException.class, in::readAllBytes);
+      assertTrue(e.getMessage().contains("Corrupted gzip member"), e.getMessage());
+    }
+  }
+
+  @Test
+  public void countersAcceptGzipFiles() throws IOException {
+    Path plain = tempDir.resolve("ips.txt");
+    Files.write(plain, DATA);
+    long expected = new ChunkedUniqueIPCounter(plain).count();
+
+    Path blocked = tempDir.resolve("ips.txt.gz");
+    Files.write(blocked, bgzip(DATA));
+    assertEquals(expected, new ChunkedUniqueIPCounter(blocked).count());
+    assertEquals(expected, new ParallelUniqueIPCounter(blocked, 4).count());
+  }
+
+  private static byte[] gzip(byte[] data, int offset, int length) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+      gzip.write(data, offset, length);
+    }
+    return out.toByteArray();
+  }
+
+  /** Same layout as bgzip output: members of at most 64 KB with size in BC extra field. */
+  private static byte[] bgzip(byte[] data) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] deflated = new byte[70_000];
+    for (int offset = 0; offset < data.length; offset += 60_000) {
+      int length = Math.min(60_000, data.length - offset);
+      Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+      deflater.setInput(data, offset, length);
+      deflater.finish();
+      int deflatedLength = deflater.deflate(deflated);
+      deflater.end();
+
+      CRC32 crc = new CRC32();
+      crc.update(data, offset, length);
+      ByteBuffer member = ByteBuffer.allocate(18 + deflatedLength + 8);
+      member.order(ByteOrder.LITTLE_ENDIAN);
+      member.put(new byte[] {0x1F, (byte) 0x8B, 8, 4, 0, 0, 0, 0, 0, (byte) 0xFF});
+      member.putShort((short) 6).put((byte) 'B').put((byte) 'C').putShort((short) 2);
+      member.putShort((short) (member.capacity() - 1));
+      member.put(deflated, 0, deflatedLength);
+      member.putInt((int) crc.getValue()).putInt(length);
+      out.write(member.array(), 0, member.capacity());
+    }
+    return out.toByteArray();
+  }
+}
@@ -0,0 +1,85 @@
+package com.shimmermare.ecwidtest.test.ipaddrcounter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.shimmermare.ecwidtest.ipaddrcounter.ChunkedUniqueIPCounter;
+import com.shimmermare.ecwidtest.ipaddrcounter.HyperLogLog;
+import com.shimmermare.ecwidtest.ipaddrcounter.HyperLogLogUniqueIPCounter;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+public class HyperLogLogUniqueIPCounterTests {
+  @Test
+  public void countsSmallExactly() throws IOException {
+    String input = "0.0.0.0\n1.1.1.1\n2.2.2.2\n255.255.255.255\n1.1.1.1";
+    InputStream in = new ByteArrayInputStream(input.getBytes());
+
+    HyperLogLogUniqueIPCounter counter = new HyperLogLogUniqueIPCounter(in);
+    assertEquals(4, counter.count());
+
+    in.close();
+  }
+
+  @Test
+  public void breaksOnBadFormat() {
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> {
+          try (InputStream in = new ByteArrayInputStream("1.1.1_1".getBytes())) {
+            new HyperLogLogUniqueIPCounter(in).count();
+          }
+        });
+  }
+
+  @ParameterizedTest
+  @CsvSource({"10, 1000", "12, 100000", "14, 10000", "14, 500000", "16, 500000"})
+  public void withinErrorBounds(int precision, int lines) throws IOException {
+    byte[] input = generate(lines, new Random(precision * 31L + lines));
+
+    long exact = new ChunkedUniqueIPCounter(new ByteArrayInputStream(input)).count();
+    long estimate =
+        new HyperLogLogUniqueIPCounter(new ByteArrayInputStream(input), precision).count();
+
+    // 4 standard errors, chance to fail is way below 0.01%
+    double bound = 4 * 1.04 / Math.sqrt(1 << precision);
+    double error = Math.abs(estimate - exact) / (double) exact;
+    assertTrue(error < bound, "Error " + error + " is out of " + bound);
+  }
+
+  @Test
+  public void mergesSketches() {
+    HyperLogLog first = new HyperLogLog();
+    HyperLogLog second = new HyperLogLog();
+    HyperLogLog both = new HyperLogLog();
+    for (int i = 0; i < 100_000; i++) {
+      (i % 2 == 0 ? first : second).add(i);
+      both.add(i);
+    }
+    first.merge(second);
+    assertEquals(both.estimate(), first.estimate());
+  }
+
+  private static byte[] generate(int lines, Random random) {
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < lines; i++) {
+      // Clustered addresses with repetitions
+      builder
+          .append(random.nextInt(4) + 10)
+          .append('.')
+          .append(random.nextInt(256))
+          .append('.')
+          .append(random.nextInt(256))
+          .append('.')
+          .append(random.nextInt(32))
+          .append('\n');
+    }
+    return builder.toString().getBytes();
+  }
+}
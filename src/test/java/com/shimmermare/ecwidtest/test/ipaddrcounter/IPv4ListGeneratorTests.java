@@ -0,0 +1,77 @@
+package com.shimmermare.ecwidtest.test.ipaddrcounter;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.shimmermare.ecwidtest.ipaddrcounter.ChunkedBitmap;
+import com.shimmermare.ecwidtest.ipaddrcounter.ChunkedUniqueIPCounter;
+import com.shimmermare.ecwidtest.ipaddrcounter.IPv4ListGenerator;
+import com.shimmermare.ecwidtest.ipaddrcounter.IPv4ListGenerator.Distribution;
+import com.shimmermare.ecwidtest.ipaddrcounter.UniqueIPAccumulator;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class IPv4ListGeneratorTests {
+  @TempDir Path tempDir;
+
+  @Test
+  public void sameSeedSameOutput() {
+    for (Distribution distribution : Distribution.values()) {
+      byte[] first = new IPv4ListGenerator(distribution, 0.3, 7).generate(10_000);
+      byte[] second = new IPv4ListGenerator(distribution, 0.3, 7).generate(10_000);
+      byte[] other = new IPv4ListGenerator(distribution, 0.3, 8).generate(10_000);
+      assertArrayEquals(first, second, distribution.name());
+      assertFalse(Arrays.equals(first, other), distribution.name());
+    }
+  }
+
+  @Test
+  public void threadCountDoesntChangeOutput() throws IOException {
+    IPv4ListGenerator generator = new IPv4ListGenerator(Distribution.ZIPF, 0.5, 1);
+    long lines = IPv4ListGenerator.BLOCK_LINES * 5L + 123;
+    Path single = tempDir.resolve("single.txt");
+    Path parallel = tempDir.resolve("parallel.txt");
+    generator.write(single, lines, 1);
+    generator.write(parallel, lines, 3);
+    assertArrayEquals(Files.readAllBytes(single), Files.readAllBytes(parallel));
+  }
+
+  @Test
+  public void writesRequestedLines() throws IOException {
+    byte[] bytes = new IPv4ListGenerator(Distribution.UNIFORM, 0, 0).generate(12_345);
+    int lines = 0;
+    for (byte b : bytes) {
+      if (b == '\n') {
+        lines++;
+      }
+    }
+    assertEquals(12_345, lines);
+    // Every line is a valid address, otherwise counter throws
+    new ChunkedUniqueIPCounter(new ByteArrayInputStream(bytes)).count();
+  }
+
+  @Test
+  public void respectsDuplicateRatio() throws IOException {
+    int lines = 200_000;
+    byte[] bytes = new IPv4ListGenerator(Distribution.UNIFORM, 0.75, 3).generate(lines);
+    long unique = new ChunkedUniqueIPCounter(new ByteArrayInputStream(bytes)).count();
+    // Uniform addresses almost never collide, so only explicit duplicates count
+    assertEquals(lines * 0.25, unique, lines * 0.01);
+  }
+
+  @Test
+  public void islandsAreClustered() throws IOException {
+    byte[] bytes = new IPv4ListGenerator(Distribution.ISLANDS, 0, 5).generate(100_000);
+    ChunkedBitmap bitmap = new ChunkedBitmap();
+    new UniqueIPAccumulator(bitmap).addLines(new ByteArrayInputStream(bytes));
+    // 256 /16 subnets are 256 * 16 blocks at most, uniform would populate almost 100k blocks
+    assertTrue(bitmap.populatedBlocks() <= 256 * 16, "Populated " + bitmap.populatedBlocks());
+  }
+}
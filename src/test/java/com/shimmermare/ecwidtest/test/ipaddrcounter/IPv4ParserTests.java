@@ -0,0 +1,49 @@
+package com.shimmermare.ecwidtest.test.ipaddrcounter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import com.shimmermare.ecwidtest.ipaddrcounter.IPv4Parser;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+public class IPv4ParserTests {
+  @Test
+  public void parses() {
+    assertEquals(0L, parse("0.0.0.0"));
+    assertEquals(0x01020304L, parse("1.2.3.4"));
+    assertEquals(0xFFFFFFFFL, parse("255.255.255.255"));
+    assertEquals(0x0A000001L, parse("010.0.0.001"));
+  }
+
+  @Test
+  public void parsesSubrange() {
+    byte[] bytes = "xx192.168.0.1yy".getBytes(StandardCharsets.US_ASCII);
+    assertEquals(0xC0A80001L, IPv4Parser.parse(bytes, 2, bytes.length - 2));
+  }
+
+  @Test
+  public void rejectsInvalid() {
+    String[] invalid = {
+      "", "1.1.1", "1.1.1.1.1", "1..1.1", ".1.1.1", "1.1.1.", "1.1.1.256", "1.1.1.-1", "1.1.1_1",
+      "1.1.1.1 ", "a.b.c.d", "99999999999.1.1.1"
+    };
+    for (String line : invalid) {
+      assertEquals(IPv4Parser.INVALID, parse(line), line);
+      byte[] bytes = line.getBytes(StandardCharsets.US_ASCII);
+      assertNotNull(IPv4Parser.describeError(bytes, 0, bytes.length), line);
+    }
+  }
+
+  @Test
+  public void noErrorForValid() {
+    byte[] bytes = "8.8.8.8".getBytes(StandardCharsets.US_ASCII);
+    assertNull(IPv4Parser.describeError(bytes, 0, bytes.length));
+  }
+
+  private static long parse(String line) {
+    byte[] bytes = line.getBytes(StandardCharsets.US_ASCII);
+    return IPv4Parser.parse(bytes, 0, bytes.length);
+  }
+}
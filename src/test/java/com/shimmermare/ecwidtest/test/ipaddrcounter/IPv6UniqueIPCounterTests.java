@@ -0,0 +1,104 @@
+package com.shimmermare.ecwidtest.test.ipaddrcounter;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.shimmermare.ecwidtest.ipaddrcounter.IPv6AddressSet;
+import com.shimmermare.ecwidtest.ipaddrcounter.IPv6Parser;
+import com.shimmermare.ecwidtest.ipaddrcounter.IPv6UniqueIPCounter;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+public class IPv6UniqueIPCounterTests {
+  @Test
+  public void parsesTextForms() throws IOException {
+    String[] valid = {
+      "::",
+      "::1",
+      "1::",
+      "2001:db8::8a2e:370:7334",
+      "2001:0DB8:0000:0000:0000:8A2E:0370:7334",
+      "fe80::1:2:3:4:5",
+      "1:2:3:4:5:6:7::",
+      "::ffff:192.168.0.1",
+      "64:ff9b::1.2.3.4",
+      "1:2:3:4:5:6:1.2.3.4"
+    };
+    long[] parsed = new long[2];
+    for (String text : valid) {
+      assertTrue(parse(text, parsed), text);
+      assertArrayEquals(reference(text), parsed, text);
+    }
+  }
+
+  @Test
+  public void rejectsInvalid() {
+    String[] invalid = {
+      "", ":", ":::", "1:2", "1::2::3", ":1::2", "1::2:", "12345::", "1:2:3:4:5:6:7:8:9",
+      "1:2:3:4:5:6:7:8::", "::1.2.3", "1.2.3.4::", "g::1", "1:2:3:4:5:6:7:1.2.3.4", "::1%eth0"
+    };
+    long[] parsed = new long[2];
+    for (String text : invalid) {
+      assertFalse(parse(text, parsed), text);
+    }
+  }
+
+  @Test
+  public void countsMixedInput() throws IOException {
+    String input = "::1\n0:0:0:0:0:0:0:1\n10.0.0.1\n::ffff:10.0.0.1\n2001:db8::1\n::";
+    InputStream in = new ByteArrayInputStream(input.getBytes());
+
+    assertEquals(4, new IPv6UniqueIPCounter(in).count());
+  }
+
+  @Test
+  public void breaksOnBadFormat() {
+    InputStream in = new ByteArrayInputStream("::1\nnot an address".getBytes());
+    assertThrows(IllegalArgumentException.class, () -> new IPv6UniqueIPCounter(in).count());
+  }
+
+  @Test
+  public void setMatchesHashSet() {
+    Random random = new Random();
+    IPv6AddressSet set = new IPv6AddressSet(16);
+    Set<String> expected = new HashSet<>();
+    for (int i = 0; i < 200_000; i++) {
+      // Shared /48 prefix with small interface ids, like real networks
+      long high = 0x20010DB8_00000000L | random.nextInt(64);
+      long low = random.nextInt(20_000);
+      assertEquals(expected.add(high + ":" + low), set.add(high, low));
+    }
+    assertEquals(expected.size(), set.size());
+    set.add(0x20010DB8_00000000L, 0);
+    assertTrue(set.contains(0x20010DB8_00000000L, 0));
+    assertFalse(set.contains(0x20010DB8_00000000L, 20_000));
+  }
+
+  private static boolean parse(String text, long[] out) {
+    byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+    return IPv6Parser.parse(bytes, 0, bytes.length, out);
+  }
+
+  private static long[] reference(String text) throws IOException {
+    byte[] bytes = InetAddress.getByName(text).getAddress();
+    if (bytes.length == 4) {
+      // JDK converts IPv4-mapped addresses to IPv4
+      ByteBuffer mapped = ByteBuffer.allocate(16).putInt(8, 0xFFFF);
+      mapped.position(12);
+      bytes = mapped.put(bytes, 0, 4).array();
+    }
+    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    return new long[] {buffer.getLong(), buffer.getLong()};
+  }
+}
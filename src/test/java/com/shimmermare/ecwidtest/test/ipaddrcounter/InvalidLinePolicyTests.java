@@ -0,0 +1,159 @@
+package com.shimmermare.ecwidtest.test.ipaddrcounter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.shimmermare.ecwidtest.ipaddrcounter.ChunkedBitmap;
+import com.shimmermare.ecwidtest.ipaddrcounter.ChunkedUniqueIPCounter;
+import com.shimmermare.ecwidtest.ipaddrcounter.FieldExtractor;
+import com.shimmermare.ecwidtest.ipaddrcounter.InvalidLinePolicy;
+import com.shimmermare.ecwidtest.ipaddrcounter.UniqueIPAccumulator;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class InvalidLinePolicyTests {
+  private static final String INPUT = "1.1.1.1\n1.1.1\n2.2.2.2\n\n300.1.1.1\r\n1.1.1.1\n";
+
+  @TempDir Path tempDir;
+
+  @Test
+  public void failsFastByDefault() {
+    ChunkedUniqueIPCounter counter = new ChunkedUniqueIPCounter(stream(INPUT));
+    IllegalArgumentException e = assertThrows(IllegalArgumentException.class, counter::count);
+    assertEquals("Line 1 is not a valid IPv4", e.getMessage());
+    assertEquals(1, counter.metrics().getInvalidLines());
+  }
+
+  @Test
+  public void skips() throws IOException {
+    ChunkedUniqueIPCounter counter =
+        new ChunkedUniqueIPCounter(stream(INPUT), accumulator(InvalidLinePolicy.skip()));
+    assertEquals(2, counter.count());
+    assertEquals(6, counter.metrics().getLines());
+    assertEquals(3, counter.metrics().getInvalidLines());
+    assertEquals(INPUT.length(), counter.metrics().getBytes());
+  }
+
+  @Test
+  public void quarantinesStream() throws IOException {
+    ByteArrayOutputStream rejects = new ByteArrayOutputStream();
+    ChunkedUniqueIPCounter counter =
+        new ChunkedUniqueIPCounter(
+            stream(INPUT), accumulator(InvalidLinePolicy.quarantine(rejects)));
+    assertEquals(2, counter.count());
+    assertEquals("1\t1.1.1\n3\t\n4\t300.1.1.1\n", rejects.toString(StandardCharsets.US_ASCII));
+  }
+
+  @Test
+  public void quarantinesMappedFile() throws IOException {
+    Path file = tempDir.resolve("ips.txt");
+    Files.writeString(file, INPUT);
+
+    ByteArrayOutputStream rejects = new ByteArrayOutputStream();
+    // Tiny windows so some lines cross window boundaries
+    UniqueIPAccumulator accumulator = accumulator(InvalidLinePolicy.quarantine(rejects));
+    assertEquals(2, accumulator.addLines(file, 16));
+    assertEquals("1\t1.1.1\n3\t\n4\t300.1.1.1\n", rejects.toString(StandardCharsets.US_ASCII));
+    assertEquals(3, accumulator.metrics().getInvalidLines());
+  }
+
+  @Test
+  public void quarantinesExtractedField() throws IOException {
+    String input = "a,1.1.1.1\nb,-\nc,2.2.2.2\n";
+    ByteArrayOutputStream rejects = new ByteArrayOutputStream();
+    ChunkedUniqueIPCounter counter =
+        new ChunkedUniqueIPCounter(
+            stream(input),
+            new UniqueIPAccumulator(
+                new ChunkedBitmap(),
+                FieldExtractor.csvColumn(1),
+                InvalidLinePolicy.quarantine(rejects)));
+    assertEquals(2, counter.count());
+    assertEquals("1\tb,-\n", rejects.toString(StandardCharsets.US_ASCII));
+  }
+
+  @Test
+  public void skipsManyInvalidLines() throws IOException {
+    // More than a batch of invalid lines in a row, valid ones around them
+    StringBuilder builder = new StringBuilder("10.0.0.1\n");
+    for (int i = 0; i < 10_000; i++) {
+      builder.append("garbage\n");
+    }
+    builder.append("10.0.0.2\n");
+
+    ChunkedUniqueIPCounter counter =
+        new ChunkedUniqueIPCounter(
+            stream(builder.toString()), accumulator(InvalidLinePolicy.skip()));
+    assertEquals(2, counter.count());
+    assertEquals(10_002, counter.metrics().getLines());
+    assertEquals(10_000, counter.metrics().getInvalidLines());
+  }
+
+  @Test
+  public void countsLinesBeforeThrowingPolicy() {
+    // Second invalid line stops counting
+    InvalidLinePolicy policy =
+        (line, bytes, from, to) -> {
+          if (line > 1) {
+            throw new IllegalArgumentException("Too many invalid lines");
+          }
+        };
+    UniqueIPAccumulator accumulator =
+        new UniqueIPAccumulator(new ChunkedBitmap(), FieldExtractor.wholeLine(), policy);
+    IllegalArgumentException e =
+        assertThrows(IllegalArgumentException.class, () -> accumulator.addLines(stream(INPUT)));
+    assertEquals("Too many invalid lines", e.getMessage());
+    assertEquals(2, accumulator.uniqueCount());
+    assertEquals(4, accumulator.metrics().getLines());
+    assertEquals(2, accumulator.metrics().getInvalidLines());
+    assertEquals("1.1.1.1\n1.1.1\n2.2.2.2\n\n".length(), accumulator.metrics().getBytes());
+  }
+
+  @Test
+  public void countsLinesBeforeFailedQuarantine() throws IOException {
+    Path file = tempDir.resolve("ips.txt");
+    Files.writeString(file, INPUT);
+    OutputStream broken =
+        new OutputStream() {
+          @Override
+          public void write(int b) throws IOException {
+            throw new IOException("Disk full");
+          }
+        };
+
+    UniqueIPAccumulator accumulator =
+        new UniqueIPAccumulator(
+            new ChunkedBitmap(), FieldExtractor.wholeLine(), InvalidLinePolicy.quarantine(broken));
+    assertThrows(IOException.class, () -> accumulator.addLines(file, 16));
+    assertEquals(1, accumulator.uniqueCount());
+    assertEquals(2, accumulator.metrics().getLines());
+    assertEquals(1, accumulator.metrics().getInvalidLines());
+  }
+
+  @Test
+  public void skipsSingleLine() {
+    UniqueIPAccumulator accumulator =
+        new UniqueIPAccumulator(
+            new ChunkedBitmap(), FieldExtractor.wholeLine(), InvalidLinePolicy.skip());
+    byte[] line = "1.1.1".getBytes(StandardCharsets.US_ASCII);
+    assertFalse(accumulator.addLine(line, 0, line.length));
+    assertEquals(0, accumulator.uniqueCount());
+    assertEquals(1, accumulator.metrics().getInvalidLines());
+  }
+
+  private static UniqueIPAccumulator accumulator(InvalidLinePolicy policy) {
+    return new UniqueIPAccumulator(new ChunkedBitmap(), FieldExtractor.wholeLine(), policy);
+  }
+
+  private static ByteArrayInputStream stream(String input) {
+    return new ByteArrayInputStream(input.getBytes(StandardCharsets.US_ASCII));
+  }
+}
@@ -0,0 +1,112 @@
+package com.shimmermare.ecwidtest.test.ipaddrcounter;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.shimmermare.ecwidtest.ipaddrcounter.AddressBitmap;
+import com.shimmermare.ecwidtest.ipaddrcounter.ChunkedBitmap;
+import com.shimmermare.ecwidtest.ipaddrcounter.KeyedUniqueIPCounter;
+import com.shimmermare.ecwidtest.ipaddrcounter.SubnetHistogram;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+public class KeyedUniqueIPCounterTests {
+  @Test
+  public void countsPerKey() {
+    KeyedUniqueIPCounter<String> counter = new KeyedUniqueIPCounter<>();
+    assertTrue(counter.add("a", 1));
+    assertFalse(counter.add("a", 1));
+    assertTrue(counter.add("b", 1));
+    assertTrue(counter.add("a", 0xFFFFFFFF));
+
+    assertEquals(2, counter.count("a"));
+    assertEquals(1, counter.count("b"));
+    assertEquals(0, counter.count("c"));
+    assertTrue(counter.bitmap("a").contains(0xFFFFFFFF));
+    assertFalse(counter.bitmap("b").contains(0xFFFFFFFF));
+  }
+
+  @Test
+  public void matchesSeparateBitmaps() {
+    KeyedUniqueIPCounter<Integer> counter = new KeyedUniqueIPCounter<>();
+    ChunkedBitmap[] expected = new ChunkedBitmap[5];
+    for (int i = 0; i < expected.length; i++) {
+      expected[i] = new ChunkedBitmap();
+    }
+    Random random = new Random();
+    for (int i = 0; i < 200_000; i++) {
+      int key = random.nextInt(expected.length);
+      // Mix of clustered and scattered addresses
+      int address = i % 2 == 0 ? random.nextInt() : 0x0A000000 | random.nextInt(1 << 16);
+      assertEquals(expected[key].add(address), counter.add(key, address));
+    }
+
+    long[] expectedWords = new long[AddressBitmap.BLOCK_WORDS];
+    long[] actualWords = new long[AddressBitmap.BLOCK_WORDS];
+    for (int key = 0; key < expected.length; key++) {
+      AddressBitmap actual = counter.bitmap(key);
+      assertEquals(expected[key].cardinality(), actual.cardinality());
+      for (int block = 0; block < AddressBitmap.BLOCK_COUNT; block += 7) {
+        boolean populated = expected[key].readBlock(block, expectedWords);
+        assertEquals(populated, actual.readBlock(block, actualWords));
+        if (populated) {
+          assertArrayEquals(expectedWords, actualWords);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void reusesBlocksOfRemovedKeys() {
+    KeyedUniqueIPCounter<String> counter = new KeyedUniqueIPCounter<>();
+    for (int i = 0; i < 10_000; i++) {
+      counter.add("old", i * 4096);
+    }
+    long allocated = counter.allocatedBytes();
+    counter.remove("old");
+    assertNull(counter.bitmap("old"));
+
+    for (int i = 0; i < 10_000; i++) {
+      counter.add("new", i * 4096 + 1);
+    }
+    assertEquals(10_000, counter.count("new"));
+    assertEquals(allocated, counter.allocatedBytes());
+    assertFalse(counter.bitmap("new").contains(0));
+  }
+
+  @Test
+  public void topKeys() {
+    KeyedUniqueIPCounter<String> counter = new KeyedUniqueIPCounter<>();
+    for (int i = 0; i < 3; i++) {
+      counter.add("three", i);
+    }
+    counter.add("one", 1);
+    for (int i = 0; i < 5; i++) {
+      counter.add("five", i);
+    }
+
+    List<Map.Entry<String, Long>> top = counter.top(2);
+    assertEquals(List.of(Map.entry("five", 5L), Map.entry("three", 3L)), top);
+  }
+
+  @Test
+  public void histogramOfKey() {
+    KeyedUniqueIPCounter<String> counter = new KeyedUniqueIPCounter<>();
+    counter.add("a", 0x0A000001);
+    counter.add("a", 0x0A000002);
+    counter.add("a", 0x0B000001);
+    counter.add("b", 0x0C000001);
+
+    SubnetHistogram histogram = counter.histogram("a", 24);
+    assertEquals(2, histogram.size());
+    assertEquals("10.0.0.0/24", histogram.format(0));
+    assertEquals(2, histogram.count(0));
+    assertEquals("11.0.0.0/24", histogram.format(1));
+    assertEquals(0, counter.histogram("unknown", 24).size());
+  }
+}
@@ -0,0 +1,91 @@
+package com.shimmermare.ecwidtest.test.ipaddrcounter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.shimmermare.ecwidtest.ipaddrcounter.ChunkedUniqueIPCounter;
+import com.shimmermare.ecwidtest.ipaddrcounter.ParallelUniqueIPCounter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ParallelUniqueIPCounterTests {
+  @TempDir Path tempDir;
+
+  @Test
+  public void counts() throws IOException {
+    Path file = tempDir.resolve("ips.txt");
+    Files.writeString(file, "0.0.0.0\n1.1.1.1\n2.2.2.2\n255.255.255.255\n1.1.1.1");
+
+    ParallelUniqueIPCounter counter = new ParallelUniqueIPCounter(file, 3);
+    assertEquals(4, counter.count());
+  }
+
+  @Test
+  public void countsAgain() throws IOException {
+    Path file = tempDir.resolve("ips.txt");
+    Files.writeString(file, "10.0.0.1\n10.0.0.2\n10.0.0.1\n10.0.0.3\n");
+
+    ParallelUniqueIPCounter counter = new ParallelUniqueIPCounter(file, 2);
+    assertEquals(3, counter.count());
+    assertEquals(3, counter.count());
+  }
+
+  @Test
+  public void countsEmptyFile() throws IOException {
+    Path file = tempDir.resolve("empty.txt");
+    Files.createFile(file);
+
+    ParallelUniqueIPCounter counter = new ParallelUniqueIPCounter(file, 4);
+    assertEquals(0, counter.count());
+  }
+
+  @Test
+  public void moreThreadsThanLines() throws IOException {
+    Path file = tempDir.resolve("ips.txt");
+    Files.writeString(file, "10.0.0.1\n10.0.0.1\n10.0.0.2\n");
+
+    ParallelUniqueIPCounter counter = new ParallelUniqueIPCounter(file, 16);
+    assertEquals(2, counter.count());
+  }
+
+  @Test
+  public void breaksOnBadFormat() throws IOException {
+    Path file = tempDir.resolve("ips.txt");
+    Files.writeString(file, "1.1.1.1\n1.1.1_1\n");
+
+    ParallelUniqueIPCounter counter = new ParallelUniqueIPCounter(file, 2);
+    assertThrows(IllegalArgumentException.class, counter::count);
+  }
+
+  @Test
+  public void matchesSingleThreaded() throws IOException {
+    Random random = new Random();
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < 100_000; i++) {
+      // Narrow range to force repetitions and shared blocks
+      builder
+          .append(10)
+          .append('.')
+          .append(random.nextInt(4))
+          .append('.')
+          .append(random.nextInt(256))
+          .append('.')
+          .append(random.nextInt(256))
+          .append('\n');
+    }
+    Path file = tempDir.resolve("ips.txt");
+    Files.writeString(file, builder);
+
+    long expected;
+    try (InputStream in = Files.newInputStream(file)) {
+      expected = new ChunkedUniqueIPCounter(in).count();
+    }
+    ParallelUniqueIPCounter counter = new ParallelUniqueIPCounter(file, 8);
+    assertEquals(expected, counter.count());
+  }
+}
@@ -0,0 +1,82 @@
+package com.shimmermare.ecwidtest.test.ipaddrcounter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.shimmermare.ecwidtest.ipaddrcounter.RoaringBitmap;
+import java.util.BitSet;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+public class RoaringBitmapTests {
+  @Test
+  public void addsRanges() {
+    RoaringBitmap bitmap = new RoaringBitmap();
+    bitmap.add(0x0A000005);
+
+    // 10.0.0.0/8, crosses 256 containers
+    assertEquals((1 << 24) - 1, bitmap.addRange(0x0A000000L, 0x0B000000L));
+    assertEquals(1 << 24, bitmap.cardinality());
+    assertTrue(bitmap.contains(0x0A000000));
+    assertTrue(bitmap.contains(0x0AFFFFFF));
+    assertFalse(bitmap.contains(0x0B000000));
+    assertFalse(bitmap.contains(0x09FFFFFF));
+
+    // Runs are tiny
+    assertTrue(bitmap.estimatedBytes() < 300_000);
+  }
+
+  @Test
+  public void mergesOverlappingRanges() {
+    RoaringBitmap bitmap = new RoaringBitmap();
+    bitmap.addRange(100, 200);
+    bitmap.addRange(300, 400);
+    bitmap.runOptimize();
+    bitmap.add(99);
+    bitmap.add(200);
+    assertEquals(99, bitmap.addRange(150, 350) + bitmap.addRange(1000, 1000));
+    assertEquals(301, bitmap.cardinality());
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(i >= 99 && i < 400, bitmap.contains(i), String.valueOf(i));
+    }
+  }
+
+  @Test
+  public void matchesBitSetAfterOptimize() {
+    Random random = new Random();
+    RoaringBitmap bitmap = new RoaringBitmap();
+    BitSet expected = new BitSet();
+    for (int i = 0; i < 200; i++) {
+      int start = random.nextInt(1 << 22);
+      int length = random.nextInt(3) == 0 ? random.nextInt(20_000) : 1;
+      bitmap.addRange(start, start + length);
+      expected.set(start, start + length);
+      if (i % 50 == 0) {
+        bitmap.runOptimize();
+      }
+    }
+    for (int i = 0; i < 50_000; i++) {
+      int address = random.nextInt(1 << 22);
+      assertEquals(!expected.get(address), bitmap.add(address));
+      expected.set(address);
+    }
+    bitmap.runOptimize();
+
+    assertEquals(expected.cardinality(), bitmap.cardinality());
+    for (int i = 0; i < (1 << 22); i++) {
+      assertEquals(expected.get(i), bitmap.contains(i));
+    }
+  }
+
+  @Test
+  public void sparseUsesLessMemory() {
+    Random random = new Random();
+    RoaringBitmap bitmap = new RoaringBitmap();
+    for (int i = 0; i < 100_000; i++) {
+      bitmap.add(random.nextInt());
+    }
+    // ~2 bytes per address plus container index, vs 512 bytes per touched block in chunked bitmap
+    assertTrue(bitmap.estimatedBytes() < 1_000_000);
+  }
+}
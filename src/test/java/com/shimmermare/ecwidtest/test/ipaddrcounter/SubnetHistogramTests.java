@@ -0,0 +1,103 @@
+package com.shimmermare.ecwidtest.test.ipaddrcounter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.shimmermare.ecwidtest.ipaddrcounter.ChunkedBitmap;
+import com.shimmermare.ecwidtest.ipaddrcounter.RoaringBitmap;
+import com.shimmermare.ecwidtest.ipaddrcounter.SubnetHistogram;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+public class SubnetHistogramTests {
+  @Test
+  public void countsPerPrefix() {
+    ChunkedBitmap bitmap = new ChunkedBitmap();
+    bitmap.add(0x0A000001);
+    bitmap.add(0x0A000002);
+    bitmap.add(0x0A000101);
+    bitmap.add(0x0A010001);
+    bitmap.add(0xC0A80001);
+
+    SubnetHistogram by8 = SubnetHistogram.of(bitmap, 8);
+    assertEquals(2, by8.size());
+    assertEquals("10.0.0.0/8", by8.format(0));
+    assertEquals(4, by8.count(0));
+    assertEquals("192.0.0.0/8", by8.format(1));
+    assertEquals(1, by8.count(1));
+
+    SubnetHistogram by16 = SubnetHistogram.of(bitmap, 16);
+    assertEquals(3, by16.size());
+    assertEquals(3, by16.count(0));
+
+    SubnetHistogram by24 = SubnetHistogram.of(bitmap, 24);
+    assertEquals(4, by24.size());
+    assertEquals(0x0A000000, by24.subnet(0));
+    assertEquals(2, by24.count(0));
+    assertEquals(0x0A000100, by24.subnet(1));
+
+    SubnetHistogram all = SubnetHistogram.of(bitmap, 0);
+    assertEquals(1, all.size());
+    assertEquals(5, all.count(0));
+  }
+
+  @Test
+  public void matchesDirectCount() {
+    Random random = new Random();
+    RoaringBitmap bitmap = new RoaringBitmap();
+    Set<Integer> addresses = new HashSet<>();
+    for (int i = 0; i < 100_000; i++) {
+      int address = random.nextInt(1 << 8) << 24 | random.nextInt(1 << 20);
+      bitmap.add(address);
+      addresses.add(address);
+    }
+    for (int prefixLength : new int[] {4, 12, 20, 22, 26}) {
+      int mask = -1 << (32 - prefixLength);
+      Map<Integer, Long> expected = new HashMap<>();
+      for (int address : addresses) {
+        expected.merge(address & mask, 1L, Long::sum);
+      }
+
+      SubnetHistogram histogram = SubnetHistogram.of(bitmap, prefixLength);
+      Map<Integer, Long> actual = new HashMap<>();
+      for (int i = 0; i < histogram.size(); i++) {
+        actual.put(histogram.subnet(i), histogram.count(i));
+        if (i > 0) {
+          assertTrue(Integer.compareUnsigned(histogram.subnet(i - 1), histogram.subnet(i)) < 0);
+        }
+      }
+      assertEquals(expected, actual, "/" + prefixLength);
+    }
+  }
+
+  @Test
+  public void topSubnets() {
+    ChunkedBitmap bitmap = new ChunkedBitmap();
+    int[] sizes = {5, 1, 9, 3, 9};
+    for (int subnet = 0; subnet < sizes.length; subnet++) {
+      for (int host = 0; host < sizes[subnet]; host++) {
+        bitmap.add(subnet << 8 | host);
+      }
+    }
+
+    SubnetHistogram top = SubnetHistogram.of(bitmap, 24).top(3);
+    assertEquals(3, top.size());
+    assertEquals(0x000200, top.subnet(0));
+    assertEquals(9, top.count(0));
+    assertEquals(0x000400, top.subnet(1));
+    assertEquals(9, top.count(1));
+    assertEquals(0x000000, top.subnet(2));
+    assertEquals(5, top.count(2));
+  }
+
+  @Test
+  public void rejectsLongPrefix() {
+    assertThrows(
+        IllegalArgumentException.class, () -> SubnetHistogram.of(new ChunkedBitmap(), 27));
+  }
+}
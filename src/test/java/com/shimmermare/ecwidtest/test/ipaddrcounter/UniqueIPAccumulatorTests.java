@@ -0,0 +1,121 @@
+package com.shimmermare.ecwidtest.test.ipaddrcounter;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.shimmermare.ecwidtest.ipaddrcounter.UniqueIPAccumulator;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class UniqueIPAccumulatorTests {
+  @TempDir Path tempDir;
+
+  @Test
+  public void addsSingleAndBatches() {
+    UniqueIPAccumulator accumulator = new UniqueIPAccumulator();
+
+    assertTrue(accumulator.add(1));
+    assertFalse(accumulator.add(1));
+    assertEquals(1, accumulator.uniqueCount());
+
+    assertEquals(2, accumulator.addAll(new int[] {0, 1, 2, 3, 2, 4}, 1, 4));
+    assertEquals(3, accumulator.uniqueCount());
+
+    ByteBuffer buffer = ByteBuffer.allocate(12).putInt(3).putInt(4).putInt(-1).flip();
+    assertEquals(2, accumulator.addAll(buffer));
+    assertEquals(5, accumulator.uniqueCount());
+  }
+
+  @Test
+  public void addsBatchesLargerThanChunk() {
+    UniqueIPAccumulator accumulator = new UniqueIPAccumulator();
+    int[] addresses = new int[10_000];
+    for (int i = 0; i < addresses.length; i++) {
+      // Descending with duplicates, bitmap would sort them if it was given the array itself
+      addresses[i] = (addresses.length - i) / 2;
+    }
+    int[] copy = addresses.clone();
+
+    assertEquals(5_000, accumulator.addAll(addresses, 1, addresses.length - 1));
+    assertArrayEquals(copy, addresses);
+    assertEquals(5_000, accumulator.uniqueCount());
+
+    ByteBuffer buffer = ByteBuffer.allocate(addresses.length * Integer.BYTES + 2);
+    for (int address : addresses) {
+      buffer.putInt(address + 5_000);
+    }
+    // Tail shorter than an address is skipped
+    buffer.putShort((short) 1).flip();
+    assertEquals(5_001, accumulator.addAll(buffer));
+    assertEquals(buffer.limit(), buffer.position());
+    assertEquals(10_001, accumulator.uniqueCount());
+  }
+
+  @Test
+  public void addsLines() {
+    UniqueIPAccumulator accumulator = new UniqueIPAccumulator();
+    byte[] line = "xx10.0.0.1".getBytes();
+
+    assertTrue(accumulator.addLine(line, 2, line.length));
+    assertFalse(accumulator.addLine(line, 2, line.length));
+    assertThrows(IllegalArgumentException.class, () -> accumulator.addLine(line, 0, line.length));
+    assertEquals(1, accumulator.uniqueCount());
+  }
+
+  @Test
+  public void reusedAcrossInputs() throws IOException {
+    UniqueIPAccumulator accumulator = new UniqueIPAccumulator();
+    Path file = tempDir.resolve("ips.txt");
+    Files.writeString(file, "3.3.3.3\n4.4.4.4\n");
+
+    assertEquals(2, accumulator.addLines(new ByteArrayInputStream("1.1.1.1\n2.2.2.2".getBytes())));
+    assertEquals(1, accumulator.addLines(new ByteArrayInputStream("2.2.2.2\n3.3.3.3".getBytes())));
+    assertEquals(1, accumulator.addLines(file));
+    assertEquals(4, accumulator.uniqueCount());
+  }
+
+  @Test
+  public void countsLinesBeforeInvalidOne() {
+    UniqueIPAccumulator accumulator = new UniqueIPAccumulator();
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> accumulator.addLines(new ByteArrayInputStream("1.1.1.1\n2.2.2.2\nfoo".getBytes())));
+    assertEquals(2, accumulator.uniqueCount());
+  }
+
+  @Test
+  public void countIsVisibleFromOtherThread() throws InterruptedException {
+    UniqueIPAccumulator accumulator = new UniqueIPAccumulator();
+    CountDownLatch added = new CountDownLatch(1);
+    AtomicBoolean seen = new AtomicBoolean();
+
+    Thread reader =
+        new Thread(
+            () -> {
+              try {
+                added.await();
+              } catch (InterruptedException e) {
+                return;
+              }
+              seen.set(accumulator.uniqueCount() == 1000);
+            });
+    reader.start();
+
+    for (int i = 0; i < 1000; i++) {
+      accumulator.add(i);
+    }
+    added.countDown();
+    reader.join();
+    assertTrue(seen.get());
+  }
+}
@@ -0,0 +1,70 @@
+package com.shimmermare.ecwidtest.test.ipaddrcounter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.shimmermare.ecwidtest.ipaddrcounter.WindowedUniqueIPCounter;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+public class WindowedUniqueIPCounterTests {
+  @Test
+  public void expiresOldBuckets() {
+    // 3 buckets of 1 second
+    WindowedUniqueIPCounter counter = new WindowedUniqueIPCounter(1000, 3);
+
+    assertTrue(counter.add(1, 0));
+    assertTrue(counter.add(2, 500));
+    assertTrue(counter.add(3, 1500));
+    assertFalse(counter.add(1, 2100));
+    assertEquals(3, counter.count(2999));
+
+    // Bucket [0, 1000) expires, but address 1 was seen again at 2100
+    assertEquals(2, counter.count(3000));
+    assertEquals(1, counter.count(4000));
+    assertEquals(0, counter.count(5000));
+  }
+
+  @Test
+  public void acceptsLateAddressesWithinWindow() {
+    WindowedUniqueIPCounter counter = new WindowedUniqueIPCounter(1000, 2);
+    counter.add(1, 5000);
+
+    assertTrue(counter.add(2, 4500));
+    // Too late
+    assertFalse(counter.add(3, 3999));
+    assertEquals(2, counter.count(5000));
+    assertEquals(1, counter.count(6000));
+  }
+
+  @Test
+  public void matchesNaiveWindow() {
+    Random random = new Random();
+    WindowedUniqueIPCounter counter = new WindowedUniqueIPCounter(100, 10);
+    Deque<long[]> events = new ArrayDeque<>();
+
+    long time = 0;
+    for (int i = 0; i < 20_000; i++) {
+      time += random.nextInt(5);
+      int address = random.nextInt(5000) << random.nextInt(12);
+      counter.add(address, time);
+      events.add(new long[] {address, time});
+
+      if (i % 500 == 0) {
+        // Window is [start of the oldest active bucket, now]
+        long windowStart = (time / 100 - 9) * 100;
+        while (!events.isEmpty() && events.peekFirst()[1] < windowStart) {
+          events.removeFirst();
+        }
+        Set<Long> expected = new HashSet<>();
+        events.forEach(e -> expected.add(e[0]));
+        assertEquals(expected.size(), counter.count(time));
+      }
+    }
+  }
+}
@@ -1,12 +1,15 @@
 package com.shimmermare.ecwidtest.test.threadlocal;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
-import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
-import static org.junit.platform.commons.util.ReflectionUtils.tryToReadFieldValue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
 import com.shimmermare.ecwidtest.threadlocal.CustomThreadLocal;
+import com.shimmermare.ecwidtest.threadlocal.SlotThread;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -15,8 +18,10 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import org.junit.jupiter.api.Test;
-import org.junit.platform.commons.function.Try;
 
 public class CustomThreadLocalTests {
   @Test
@@ -73,34 +78,200 @@ public class CustomThreadLocalTests {
   public void doesntPreventGCOfThreads() throws InterruptedException {
     CustomThreadLocal<Object> threadLocal = new CustomThreadLocal<>();
 
-    Try<Object> threadLocalMapTry =
-        tryToReadFieldValue(CustomThreadLocal.class, "locals", threadLocal);
-    @SuppressWarnings("unchecked")
-    Map<Thread, Object> threadLocalMap =
-        (Map<Thread, Object>)
-            threadLocalMapTry.getOrThrow(
-                (e) -> new IllegalStateException("Can't find thread local map", e));
-
     Thread thread = new Thread(() -> threadLocal.set(new Object()));
     thread.start();
     thread.join();
+    WeakReference<Thread> threadRef = new WeakReference<>(thread);
     thread = null;
 
-    assertFalse(threadLocalMap.isEmpty());
+    awaitCleared(threadRef, () -> {});
+  }
 
-    System.gc();
+  @Test
+  public void releasesValuesOfFinishedThreads() throws InterruptedException {
+    CustomThreadLocal<Object> threadLocal = new CustomThreadLocal<>();
+    AtomicReference<WeakReference<Object>> valueRef = new AtomicReference<>();
 
-    // Unfortunately WeakHashMap isn't immediately cleared after thread is GCed.
-    // One solution that should work in 99.(9)% cases is to wait until the map is cleaned.
-    // A little bit dirty, but working.
-    long startedWaiting = System.currentTimeMillis();
-    while (!threadLocalMap.isEmpty()) {
-      if (System.currentTimeMillis() - startedWaiting > 10000) {
-        throw new IllegalStateException("Thread local map wasn't cleared in 10 seconds");
+    Thread thread =
+        new Thread(
+            () -> {
+              Object value = new Object();
+              valueRef.set(new WeakReference<>(value));
+              threadLocal.set(value);
+            });
+    thread.start();
+    thread.join();
+    thread = null;
+
+    // Values of dead threads are dropped on writes of other threads
+    awaitCleared(valueRef.get(), () -> threadLocal.set(new Object()));
+  }
+
+  @Test
+  public void manyThreads() throws InterruptedException {
+    CustomThreadLocal<Integer> threadLocal = new CustomThreadLocal<>();
+    AtomicInteger mismatches = new AtomicInteger();
+    Thread[] threads = new Thread[500];
+    for (int i = 0; i < threads.length; i++) {
+      int value = i;
+      threads[i] =
+          new Thread(
+              () -> {
+                threadLocal.set(value);
+                Thread.yield();
+                if (threadLocal.get() != value) {
+                  mismatches.incrementAndGet();
+                }
+                threadLocal.remove();
+                if (threadLocal.get() != null) {
+                  mismatches.incrementAndGet();
+                }
+              });
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(0, mismatches.get());
+    assertNull(threadLocal.get());
+  }
+
+  @Test
+  public void releasesValuesOfDiscardedLocals() throws InterruptedException {
+    Object value = new Object();
+    WeakReference<Object> valueRef = new WeakReference<>(value);
+    new CustomThreadLocal<>().set(value);
+    value = null;
+
+    awaitCleared(valueRef, () -> {});
+  }
+
+  @Test
+  public void reusedIdsDontLeakValues() {
+    Object value = new Object();
+    for (int i = 0; i < 10_000; i++) {
+      CustomThreadLocal<Object> threadLocal = new CustomThreadLocal<>();
+      assertNull(threadLocal.get());
+      threadLocal.set(value);
+      assertEquals(value, threadLocal.get());
+      if (i % 1000 == 0) {
+        System.gc();
       }
     }
+  }
 
-    assertTrue(threadLocalMap.isEmpty());
+  @Test
+  public void slotThreads() throws Throwable {
+    CustomThreadLocal<Object> threadLocal1 = new CustomThreadLocal<>();
+    CustomThreadLocal<Object> threadLocal2 = new CustomThreadLocal<>();
+    ExecutorService executor =
+        Executors.newFixedThreadPool(2, SlotThread.factory("slot-thread-test"));
+    try {
+      Future<?> task =
+          executor.submit(
+              () -> {
+                assertTrue(Thread.currentThread() instanceof SlotThread);
+                assertNull(threadLocal1.get());
+                threadLocal1.set("a");
+                threadLocal2.set("b");
+                assertEquals("a", threadLocal1.get());
+                assertEquals("b", threadLocal2.get());
+                threadLocal1.remove();
+                assertNull(threadLocal1.get());
+                assertEquals("b", threadLocal2.get());
+              });
+      try {
+        task.get();
+      } catch (ExecutionException e) {
+        throw e.getCause();
+      }
+    } finally {
+      executor.shutdown();
+    }
+    assertNull(threadLocal2.get());
+  }
+
+  @Test
+  public void createsInitialValues() throws InterruptedException {
+    AtomicInteger created = new AtomicInteger();
+    CustomThreadLocal<Integer> threadLocal =
+        CustomThreadLocal.withInitial(created::incrementAndGet);
+
+    assertEquals(1, threadLocal.get());
+    assertEquals(1, threadLocal.get());
+    threadLocal.set(42);
+    assertEquals(42, threadLocal.get());
+    threadLocal.remove();
+    assertEquals(2, threadLocal.get());
+
+    Thread thread = new Thread(() -> assertEquals(3, threadLocal.get()));
+    thread.start();
+    thread.join();
+    assertEquals(3, created.get());
+  }
+
+  @Test
+  public void manyShortLivedThreads() throws Throwable {
+    CustomThreadLocal<Object> threadLocal = CustomThreadLocal.withInitial(Object::new);
+    CustomThreadLocal<Integer> counter = new CustomThreadLocal<>();
+    ExecutorService executor = Executors.newFixedThreadPool(16);
+    AtomicInteger mismatches = new AtomicInteger();
+    List<Future<?>> tasks = new ArrayList<>();
+    // Every task starts a thread of its own, at most 16 live at once
+    for (int i = 0; i < 20_000; i++) {
+      int value = i;
+      tasks.add(
+          executor.submit(
+              () -> {
+                Thread thread = new Thread(() -> checkThreadLocals(threadLocal, counter, value));
+                thread.setUncaughtExceptionHandler((t, e) -> mismatches.incrementAndGet());
+                thread.start();
+                thread.join();
+                return null;
+              }));
+    }
+    for (Future<?> task : tasks) {
+      try {
+        task.get();
+      } catch (ExecutionException e) {
+        throw e.getCause();
+      }
+    }
+    executor.shutdown();
+    assertEquals(0, mismatches.get());
+  }
+
+  @Test
+  public void millionVirtualThreads() throws Throwable {
+    Method newExecutor;
+    try {
+      newExecutor = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+    } catch (NoSuchMethodException e) {
+      newExecutor = null;
+    }
+    assumeTrue(newExecutor != null, "Virtual threads aren't supported by this JVM");
+
+    CustomThreadLocal<Object> threadLocal = CustomThreadLocal.withInitial(Object::new);
+    CustomThreadLocal<Integer> counter = new CustomThreadLocal<>();
+    AtomicInteger mismatches = new AtomicInteger();
+    ExecutorService executor = (ExecutorService) newExecutor.invoke(null);
+    try {
+      for (int i = 0; i < 1_000_000; i++) {
+        int value = i;
+        executor.execute(
+            () -> {
+              try {
+                checkThreadLocals(threadLocal, counter, value);
+              } catch (Throwable e) {
+                mismatches.incrementAndGet();
+              }
+            });
+      }
+    } finally {
+      executor.shutdown();
+    }
+    assertTrue(executor.awaitTermination(5, TimeUnit.MINUTES));
+    assertEquals(0, mismatches.get());
   }
 
   @Test
@@ -136,4 +307,31 @@ public class CustomThreadLocalTests {
       }
     }
   }
+
+  private static void checkThreadLocals(
+      CustomThreadLocal<Object> threadLocal, CustomThreadLocal<Integer> counter, int value) {
+    assertNull(counter.get());
+    counter.set(value);
+    Object initial = threadLocal.get();
+    assertSame(initial, threadLocal.get());
+    assertEquals(value, counter.get());
+  }
+
+  /**
+   * GC isn't guaranteed to clear weak references at once. Wait until it does, running the action
+   * between attempts.
+   */
+  private static void awaitCleared(WeakReference<?> ref, Runnable action)
+      throws InterruptedException {
+    long startedWaiting = System.currentTimeMillis();
+    while (ref.get() != null) {
+      if (System.currentTimeMillis() - startedWaiting > 10000) {
+        throw new IllegalStateException("Reference wasn't cleared in 10 seconds");
+      }
+      System.gc();
+      action.run();
+      Thread.sleep(10);
+    }
+    assertNull(ref.get());
+  }
 }
@@ -0,0 +1,63 @@
+package com.shimmermare.ecwidtest.test.threadlocal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.shimmermare.ecwidtest.threadlocal.StripedLocal;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import org.junit.jupiter.api.Test;
+
+public class StripedLocalTests {
+  @Test
+  public void roundsStripes() {
+    assertEquals(1, new StripedLocal<>(Object::new, 1).stripes());
+    assertEquals(8, new StripedLocal<>(Object::new, 5).stripes());
+    assertEquals(8, new StripedLocal<>(Object::new, 8).stripes());
+    assertThrows(IllegalArgumentException.class, () -> new StripedLocal<>(Object::new, 0));
+  }
+
+  @Test
+  public void sameValueForThread() {
+    StripedLocal<Object> local = new StripedLocal<>(Object::new);
+    assertSame(local.get(), local.get());
+  }
+
+  @Test
+  public void boundedByStripes() throws InterruptedException {
+    AtomicInteger created = new AtomicInteger();
+    StripedLocal<LongAdder> local =
+        new StripedLocal<>(
+            () -> {
+              created.incrementAndGet();
+              return new LongAdder();
+            },
+            4);
+    Set<LongAdder> seen =
+        Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<>()));
+    Thread[] threads = new Thread[200];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] =
+          new Thread(
+              () -> {
+                LongAdder adder = local.get();
+                adder.increment();
+                seen.add(adder);
+              });
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertTrue(seen.size() <= 4);
+    // Losers of races for an empty stripe are dropped
+    assertTrue(created.get() >= seen.size());
+    assertEquals(200, seen.stream().mapToLong(LongAdder::sum).sum());
+  }
+}
@@ -0,0 +1,152 @@
+package com.shimmermare.ecwidtest.test.threadlocal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.shimmermare.ecwidtest.threadlocal.CustomThreadLocal;
+import com.shimmermare.ecwidtest.threadlocal.ThreadLeak;
+import com.shimmermare.ecwidtest.threadlocal.ThreadLocalMetrics;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.junit.jupiter.api.Test;
+
+public class ThreadLocalMetricsTests {
+  private final ThreadLocalMetrics metrics = ThreadLocalMetrics.instance();
+
+  @Test
+  public void countsThreadsAndEntries() throws InterruptedException {
+    CustomThreadLocal<Object> threadLocal = new CustomThreadLocal<>();
+    long insertions = metrics.getInsertions();
+
+    Thread thread =
+        new Thread(
+            () -> {
+              threadLocal.get();
+              threadLocal.set(new Object());
+            });
+    thread.start();
+    thread.join();
+
+    assertTrue(metrics.getInsertions() > insertions);
+    assertTrue(metrics.getThreads() > 0);
+    assertTrue(metrics.getLiveLocals() > 0);
+    assertEquals(1, metrics.entries(threadLocal));
+    assertEquals(-1, metrics.getLookups());
+    assertEquals(-1, metrics.getMisses());
+
+    threadLocal.set(new Object());
+    assertEquals(2, metrics.entries(threadLocal));
+    // Keeps the thread reachable until here
+    assertEquals(Thread.State.TERMINATED, thread.getState());
+  }
+
+  @Test
+  public void expungesDeadThreads() throws InterruptedException {
+    CustomThreadLocal<Object> threadLocal = new CustomThreadLocal<>();
+    long expunged = metrics.getExpungedThreads();
+
+    Thread thread = new Thread(() -> threadLocal.set(new Object()));
+    thread.start();
+    thread.join();
+    thread = null;
+
+    long startedWaiting = System.currentTimeMillis();
+    while (metrics.getExpungedThreads() == expunged) {
+      if (System.currentTimeMillis() - startedWaiting > 10000) {
+        throw new IllegalStateException("Dead thread wasn't expunged in 10 seconds");
+      }
+      System.gc();
+      // Dead threads are expunged on writes
+      threadLocal.set(new Object());
+      Thread.sleep(10);
+    }
+  }
+
+  @Test
+  public void findsLeaks() throws InterruptedException {
+    CustomThreadLocal<Object> threadLocal = new CustomThreadLocal<>();
+    // Terminated, but reachable from here, so its values can't be collected
+    Thread thread = new Thread(() -> threadLocal.set(new Object()), "leaking-thread");
+    thread.start();
+    thread.join();
+
+    List<ThreadLeak> leaks = metrics.findLeaks();
+    assertTrue(leaks.stream().anyMatch(leak -> leak.threadId() == thread.getId()));
+    assertTrue(metrics.getTerminatedThreadsWithValues() > 0);
+
+    BlockingQueue<ThreadLeak> reported = new LinkedBlockingQueue<>();
+    metrics.startLeakDetection(reported::add, 10);
+    try {
+      ThreadLeak leak;
+      do {
+        leak = reported.poll(10, TimeUnit.SECONDS);
+      } while (leak != null && leak.threadId() != thread.getId());
+      assertEquals("leaking-thread", leak.threadName());
+      assertEquals(1, leak.values());
+    } finally {
+      metrics.stopLeakDetection();
+    }
+  }
+
+  @Test
+  public void keepsDetectingAfterListenerFailure() throws InterruptedException {
+    CustomThreadLocal<Object> threadLocal = new CustomThreadLocal<>();
+    BlockingQueue<Long> reported = new LinkedBlockingQueue<>();
+    metrics.startLeakDetection(
+        leak -> {
+          reported.add(leak.threadId());
+          throw new IllegalStateException("Listener failure");
+        },
+        10);
+    try {
+      Thread first = leak(threadLocal);
+      awaitReported(reported, first);
+      // Leaks found after the failure are still reported
+      Thread second = leak(threadLocal);
+      awaitReported(reported, second);
+    } finally {
+      metrics.stopLeakDetection();
+    }
+  }
+
+  @Test
+  public void exposesMBean() throws Exception {
+    CustomThreadLocal<Object> threadLocal = new CustomThreadLocal<>();
+    threadLocal.set(new Object());
+
+    ObjectName name = metrics.registerMBean();
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    try {
+      assertEquals(metrics.getInsertions(), server.getAttribute(name, "Insertions"));
+      assertTrue((Long) server.getAttribute(name, "LiveLocals") > 0);
+      assertEquals(-1L, server.getAttribute(name, "Lookups"));
+      assertEquals(-1L, server.getAttribute(name, "Misses"));
+    } finally {
+      metrics.unregisterMBean();
+    }
+    assertFalse(server.isRegistered(name));
+  }
+
+  private static Thread leak(CustomThreadLocal<Object> threadLocal) throws InterruptedException {
+    Thread thread = new Thread(() -> threadLocal.set(new Object()));
+    thread.start();
+    thread.join();
+    return thread;
+  }
+
+  private static void awaitReported(BlockingQueue<Long> reported, Thread thread)
+      throws InterruptedException {
+    Long id;
+    do {
+      id = reported.poll(10, TimeUnit.SECONDS);
+    } while (id != null && id != thread.getId());
+    assertNotNull(id, "Leak of " + thread.getName() + " isn't reported");
+  }
+}
@@ -0,0 +1,145 @@
+package com.shimmermare.ecwidtest.test.threadlocal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.shimmermare.ecwidtest.threadlocal.ThreadLocalPool;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.Test;
+
+public class ThreadLocalPoolTests {
+  @Test
+  public void reusesOnSameThread() {
+    ThreadLocalPool<Object> pool = new ThreadLocalPool<>(Object::new);
+    Object first = pool.borrow();
+    pool.release(first);
+    assertSame(first, pool.borrow());
+    assertEquals(1, pool.created());
+  }
+
+  @Test
+  public void resetsReleased() {
+    ThreadLocalPool<StringBuilder> pool =
+        new ThreadLocalPool<>(StringBuilder::new, builder -> builder.setLength(0));
+    StringBuilder builder = pool.borrow();
+    builder.append("scratch");
+    pool.release(builder);
+    assertEquals(0, pool.borrow().length());
+  }
+
+  @Test
+  public void validatesCapacity() {
+    assertThrows(
+        IllegalArgumentException.class, () -> new ThreadLocalPool<>(Object::new, o -> {}, -1, 1));
+    assertThrows(
+        IllegalArgumentException.class, () -> new ThreadLocalPool<>(Object::new, o -> {}, 1, -1));
+  }
+
+  @Test
+  public void overflowsToSharedAndDrops() {
+    ThreadLocalPool<Object> pool = new ThreadLocalPool<>(Object::new, o -> {}, 2, 3);
+    Object[] borrowed = new Object[7];
+    for (int i = 0; i < borrowed.length; i++) {
+      borrowed[i] = pool.borrow();
+    }
+    for (Object object : borrowed) {
+      pool.release(object);
+    }
+    assertEquals(3, pool.sharedSize());
+    assertEquals(2, pool.dropped());
+
+    // Free list first, then shared stack, then new
+    assertSame(borrowed[1], pool.borrow());
+    assertSame(borrowed[0], pool.borrow());
+    assertSame(borrowed[4], pool.borrow());
+    assertSame(borrowed[3], pool.borrow());
+    assertSame(borrowed[2], pool.borrow());
+    assertEquals(0, pool.sharedSize());
+    pool.borrow();
+    assertEquals(8, pool.created());
+  }
+
+  @Test
+  public void handsOverAcrossThreads() throws InterruptedException {
+    ThreadLocalPool<Object> pool = new ThreadLocalPool<>(Object::new, o -> {}, 0, 4);
+    Object object = pool.borrow();
+
+    AtomicReference<Object> other = new AtomicReference<>();
+    Thread thread =
+        new Thread(
+            () -> {
+              pool.release(object);
+              other.set(pool.borrow());
+              pool.release(other.get());
+            });
+    thread.start();
+    thread.join();
+
+    assertSame(object, other.get());
+    assertSame(object, pool.borrow());
+    assertEquals(1, pool.created());
+  }
+
+  @Test
+  public void threadsDontShareFreeLists() throws InterruptedException {
+    ThreadLocalPool<Object> pool = new ThreadLocalPool<>(Object::new, o -> {}, 4, 0);
+    Object object = pool.borrow();
+    pool.release(object);
+
+    AtomicReference<Object> other = new AtomicReference<>();
+    Thread thread = new Thread(() -> other.set(pool.borrow()));
+    thread.start();
+    thread.join();
+
+    assertNotSame(object, other.get());
+    assertSame(object, pool.borrow());
+  }
+
+  @Test
+  public void neverLendsSameObjectTwice() throws InterruptedException {
+    // Threads hold more than fits into their free lists, so objects go through shared stack
+    ThreadLocalPool<Object> pool = new ThreadLocalPool<>(Object::new, o -> {}, 1, 16);
+    Set<Object> lent =
+        Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<>()));
+    AtomicReference<Throwable> error = new AtomicReference<>();
+    Thread[] threads = new Thread[8];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] =
+          new Thread(
+              () -> {
+                try {
+                  Object[] held = new Object[3];
+                  for (int round = 0; round < 20_000; round++) {
+                    for (int j = 0; j < held.length; j++) {
+                      held[j] = pool.borrow();
+                      if (!lent.add(held[j])) {
+                        throw new AssertionError("Object is lent twice");
+                      }
+                    }
+                    for (Object object : held) {
+                      lent.remove(object);
+                      pool.release(object);
+                    }
+                  }
+                } catch (Throwable e) {
+                  error.compareAndSet(null, e);
+                }
+              });
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    if (error.get() != null) {
+      throw new AssertionError(error.get());
+    }
+    assertTrue(pool.sharedSize() <= 16);
+  }
+}